@@ -0,0 +1,91 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Shared setup of the benchmarks. SecretStore is a singleton tied to the
+ * first Context it's given, so every benchmark in a fork shares one Context,
+ * backed by a temporary directory.
+ */
+final class Benchmarks {
+    private static Context sContext = null;
+
+    private Benchmarks() {
+    }
+
+    static synchronized Context getContext() throws IOException {
+        if (sContext == null) {
+            File directory = Files.createTempDirectory("system-unlock-benchmarks").toFile();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(directory)));
+            sContext = new Context(directory);
+        }
+        return sContext;
+    }
+
+    /**
+     * Returns a CryptographyManager keeping its keys in memory, so that the
+     * measurements show the plugin's own overhead rather than the keystore.
+     */
+    static CryptographyManagerImpl newCryptographyManager() {
+        return new CryptographyManagerImpl(new SoftwareKeyStoreBackend());
+    }
+
+    /**
+     * Parses the arguments of a call as the plugin does.
+     */
+    static PromptInfo parsePromptInfo(JSONObject args, BiometricActivityType type) {
+        return new PromptInfo.Builder("Benchmarks")
+            .parseArgs(new JSONArray().put(args), type)
+            .build();
+    }
+
+    static String[] secretNames(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    static byte[] payload(int size) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) 'x');
+        return payload;
+    }
+
+    /**
+     * Discards whatever is written to it, for reading chunked secrets.
+     */
+    static final class NullOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
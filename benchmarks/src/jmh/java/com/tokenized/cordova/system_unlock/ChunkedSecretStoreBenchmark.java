@@ -0,0 +1,67 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading a large secret in chunked mode, whole and in part.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChunkedSecretStoreBenchmark {
+    private static final int RANGE_LENGTH = 4096;
+
+    @Param({"1048576", "4194304"})
+    public int secretSize;
+
+    private Context mContext;
+    private String mSecretName;
+    private byte[] mSecret;
+    private String mTextSecret;
+    private byte[] mDataKey;
+
+    @Setup
+    public void setUp() throws Exception {
+        mContext = Benchmarks.getContext();
+        mSecretName = "chunked-" + secretSize;
+        mSecret = Benchmarks.payload(secretSize);
+        mTextSecret = new String(mSecret, "UTF-8");
+        mDataKey = ChunkedSecretStore.newDataKey();
+        ChunkedSecretStore.write(mSecretName, mSecret, mDataKey, mContext);
+    }
+
+    @Benchmark
+    public void writeBytes() throws CryptoException {
+        ChunkedSecretStore.write(mSecretName, mSecret, mDataKey, mContext);
+    }
+
+    @Benchmark
+    public void writeString() throws CryptoException {
+        ChunkedSecretStore.write(mSecretName, mTextSecret, mDataKey, mContext);
+    }
+
+    @Benchmark
+    public long readAll() throws CryptoException {
+        Benchmarks.NullOutputStream out = new Benchmarks.NullOutputStream();
+        ChunkedSecretStore.read(mSecretName, mDataKey, 0, -1, out, mContext);
+        return out.count;
+    }
+
+    @Benchmark
+    public long readRange() throws CryptoException {
+        Benchmarks.NullOutputStream out = new Benchmarks.NullOutputStream();
+        ChunkedSecretStore.read(mSecretName, mDataKey, secretSize / 2, RANGE_LENGTH, out, mContext);
+        return out.count;
+    }
+}
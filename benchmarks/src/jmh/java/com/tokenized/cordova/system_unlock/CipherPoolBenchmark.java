@@ -0,0 +1,69 @@
+package com.tokenized.cordova.system_unlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Getting a Cipher from CipherPool against Cipher.getInstance each time, on
+ * its own and followed by the init and encryption it is taken for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CipherPoolBenchmark {
+    @Param({"64"})
+    public int secretSize;
+
+    private SecretKey mKey;
+    private byte[] mSecret;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        mKey = keyGenerator.generateKey();
+        mSecret = new byte[secretSize];
+        // Leaves a Cipher in the benchmark thread's pool
+        CipherPool.release(CipherPool.acquire());
+    }
+
+    @Benchmark
+    public Cipher acquirePooled() throws Exception {
+        Cipher cipher = CipherPool.acquire();
+        CipherPool.release(cipher);
+        return cipher;
+    }
+
+    @Benchmark
+    public Cipher acquireFresh() throws Exception {
+        return Cipher.getInstance(CipherPool.TRANSFORMATION);
+    }
+
+    @Benchmark
+    public byte[] encryptPooled() throws Exception {
+        Cipher cipher = CipherPool.acquire();
+        cipher.init(Cipher.ENCRYPT_MODE, mKey);
+        byte[] ciphertext = cipher.doFinal(mSecret);
+        CipherPool.release(cipher);
+        return ciphertext;
+    }
+
+    @Benchmark
+    public byte[] encryptFresh() throws Exception {
+        Cipher cipher = Cipher.getInstance(CipherPool.TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, mKey);
+        return cipher.doFinal(mSecret);
+    }
+}
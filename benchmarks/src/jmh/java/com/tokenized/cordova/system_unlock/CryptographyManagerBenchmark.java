@@ -0,0 +1,71 @@
+package com.tokenized.cordova.system_unlock;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+/**
+ * Encrypting and decrypting a secret through CryptographyManagerImpl, and
+ * setting up its Cipher on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CryptographyManagerBenchmark {
+    private static final String KEY_NAME = "benchmark";
+
+    @Param({"64", "4096", "65536"})
+    public int secretSize;
+
+    private CryptographyManagerImpl mCryptographyManager;
+    private PromptInfo mPromptInfo;
+    private byte[] mSecret;
+    private EncryptedData mEncryptedData;
+    private byte[] mInitializationVector;
+    private byte[] mCiphertext;
+
+    @Setup
+    public void setUp() throws Exception {
+        mCryptographyManager = Benchmarks.newCryptographyManager();
+        mPromptInfo = Benchmarks.parsePromptInfo(
+            new JSONObject().put("secretName", KEY_NAME), BiometricActivityType.SET_SECRET);
+        mSecret = Benchmarks.payload(secretSize);
+        Cipher cipher = mCryptographyManager.getInitializedCipherForEncryption(KEY_NAME, mPromptInfo);
+        mEncryptedData = mCryptographyManager.encryptData(mSecret, cipher);
+        mEncryptedData.save(KEY_NAME, Benchmarks.getContext());
+        mInitializationVector = EncryptedData.loadInitializationVector(KEY_NAME, Benchmarks.getContext());
+        mCiphertext = EncryptedData.loadCiphertext(KEY_NAME, Benchmarks.getContext());
+    }
+
+    @Benchmark
+    public Cipher initCipherForEncryption() throws CryptoException {
+        return mCryptographyManager.getInitializedCipherForEncryption(KEY_NAME, mPromptInfo);
+    }
+
+    @Benchmark
+    public Cipher initCipherForDecryption() throws CryptoException {
+        return mCryptographyManager.getInitializedCipherForDecryption(KEY_NAME, mInitializationVector);
+    }
+
+    @Benchmark
+    public EncryptedData encrypt() throws CryptoException {
+        Cipher cipher = mCryptographyManager.getInitializedCipherForEncryption(KEY_NAME, mPromptInfo);
+        return mCryptographyManager.encryptData(mSecret, cipher);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws CryptoException {
+        Cipher cipher = mCryptographyManager.getInitializedCipherForDecryption(KEY_NAME, mInitializationVector);
+        return mCryptographyManager.decryptDataBytes(mCiphertext, cipher);
+    }
+}
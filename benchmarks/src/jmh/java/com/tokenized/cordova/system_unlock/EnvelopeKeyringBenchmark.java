@@ -0,0 +1,96 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+/**
+ * Setting and getting many secrets in envelope mode, the way SecretOperations
+ * does: one master key operation for the keyring, and the secrets encrypted
+ * in software with data keys of their own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnvelopeKeyringBenchmark {
+    private static final SecretScope SCOPE = SecretScope.ONE_PASSCODE;
+    private static final LockBehavior LOCK_BEHAVIOR = LockBehavior.LOCK_AFTER_USE;
+
+    @Param({"10", "100"})
+    public int secretCount;
+
+    @Param({"64"})
+    public int secretSize;
+
+    private Context mContext;
+    private CryptographyManagerImpl mCryptographyManager;
+    private PromptInfo mPromptInfo;
+    private String[] mSecretNames;
+    private byte[] mSecret;
+
+    @Setup
+    public void setUp() throws Exception {
+        mContext = Benchmarks.getContext();
+        mCryptographyManager = Benchmarks.newCryptographyManager();
+        mPromptInfo = Benchmarks.parsePromptInfo(
+            new JSONObject().put("androidEnvelope", true), BiometricActivityType.SET_SECRETS);
+        mSecretNames = Benchmarks.secretNames("envelope-" + secretCount + "-", secretCount);
+        mSecret = Benchmarks.payload(secretSize);
+        setSecrets();
+    }
+
+    @Benchmark
+    public void setSecrets() throws CryptoException {
+        synchronized (EnvelopeKeyring.getLock(SCOPE, LOCK_BEHAVIOR)) {
+            EnvelopeKeyring keyring = EnvelopeKeyring.load(
+                SCOPE, LOCK_BEHAVIOR, mCryptographyManager, mContext);
+            try {
+                String[] names = new String[secretCount + 1];
+                EncryptedData[] encryptedData = new EncryptedData[secretCount + 1];
+                for (int i = 0; i < secretCount; i++) {
+                    names[i] = mSecretNames[i];
+                    encryptedData[i] = keyring.encrypt(mSecretNames[i], mSecret);
+                }
+                Cipher cipher = mCryptographyManager.getInitializedCipherForEncryption(
+                    keyring.getMasterKeyName(), mPromptInfo);
+                names[secretCount] = keyring.getKeyringName();
+                encryptedData[secretCount] = keyring.seal(mCryptographyManager, cipher);
+                EncryptedData.saveAll(names, encryptedData, mContext);
+            } finally {
+                keyring.clear();
+            }
+        }
+    }
+
+    @Benchmark
+    public void getSecrets(Blackhole blackhole) throws CryptoException {
+        EnvelopeKeyring keyring = null;
+        try {
+            for (String secretName : mSecretNames) {
+                byte[] storedIv = EncryptedData.loadInitializationVector(secretName, mContext);
+                if (keyring == null) {
+                    keyring = EnvelopeKeyring.load(storedIv, mCryptographyManager, mContext);
+                }
+                byte[] ciphertext = EncryptedData.loadCiphertext(secretName, mContext);
+                blackhole.consume(keyring.decrypt(secretName, storedIv, ciphertext));
+            }
+        } finally {
+            if (keyring != null) {
+                keyring.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.tokenized.cordova.system_unlock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording into a LatencyHistogram, which every phase of every call does,
+ * from one thread and from several at once, and reporting it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+    private LatencyHistogram mHistogram;
+
+    @Setup
+    public void setUp() {
+        mHistogram = new LatencyHistogram();
+        for (long nanos = 1000; nanos < TimeUnit.SECONDS.toNanos(10); nanos *= 3) {
+            mHistogram.record(nanos);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        mHistogram.record(System.nanoTime() & 0xFFFFFFL);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        mHistogram.record(System.nanoTime() & 0xFFFFFFL);
+    }
+
+    @Benchmark
+    public JSONObject toJson() throws JSONException {
+        return mHistogram.toJson();
+    }
+}
@@ -0,0 +1,61 @@
+package com.tokenized.cordova.system_unlock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the arguments of a call into a PromptInfo, with the JSON as the
+ * Cordova bridge hands it over.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PromptInfoBenchmark {
+    @Param({"1", "100"})
+    public int secretCount;
+
+    private String mSetSecretsArgs;
+    private String mGetSecretsArgs;
+
+    @Setup
+    public void setUp() throws Exception {
+        String[] names = Benchmarks.secretNames("args-", secretCount);
+        JSONArray secrets = new JSONArray();
+        for (String name : names) {
+            secrets.put(new JSONObject().put("secretName", name).put("secret", name));
+        }
+        mSetSecretsArgs = new JSONArray().put(new JSONObject()
+            .put("secrets", secrets)
+            .put("lockBehavior", "lockWithDevice")
+            .put("androidAutoLockTimeSeconds", 60)
+            .put("androidEnvelope", true)).toString();
+        mGetSecretsArgs = new JSONArray().put(new JSONObject()
+            .put("secretNames", new JSONArray(names))
+            .put("lockBehavior", "lockWithDevice")
+            .put("batch", "continue")).toString();
+    }
+
+    @Benchmark
+    public PromptInfo parseSetSecrets() throws Exception {
+        return new PromptInfo.Builder("Benchmarks")
+            .parseArgs(new JSONArray(mSetSecretsArgs), BiometricActivityType.SET_SECRETS)
+            .build();
+    }
+
+    @Benchmark
+    public PromptInfo parseGetSecrets() throws Exception {
+        return new PromptInfo.Builder("Benchmarks")
+            .parseArgs(new JSONArray(mGetSecretsArgs), BiometricActivityType.GET_SECRETS)
+            .build();
+    }
+}
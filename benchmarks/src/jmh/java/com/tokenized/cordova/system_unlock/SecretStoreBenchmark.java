@@ -0,0 +1,66 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading encrypted secrets through EncryptedData and the
+ * SecretStore log, one at a time and many at once as setSecrets and
+ * getSecrets do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SecretStoreBenchmark {
+    @Param({"1", "100"})
+    public int secretCount;
+
+    @Param({"64", "4096"})
+    public int secretSize;
+
+    private Context mContext;
+    private String[] mSecretNames;
+    private EncryptedData[] mEncryptedData;
+
+    @Setup
+    public void setUp() throws Exception {
+        mContext = Benchmarks.getContext();
+        mSecretNames = Benchmarks.secretNames("store-" + secretSize + "-", secretCount);
+        mEncryptedData = new EncryptedData[secretCount];
+        for (int i = 0; i < secretCount; i++) {
+            mEncryptedData[i] = new EncryptedData(Benchmarks.payload(secretSize), new byte[12]);
+        }
+        EncryptedData.saveAll(mSecretNames, mEncryptedData, mContext);
+    }
+
+    @Benchmark
+    public void saveEach() throws CryptoException {
+        for (int i = 0; i < secretCount; i++) {
+            mEncryptedData[i].save(mSecretNames[i], mContext);
+        }
+    }
+
+    @Benchmark
+    public void saveAll() throws CryptoException {
+        EncryptedData.saveAll(mSecretNames, mEncryptedData, mContext);
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) throws CryptoException {
+        for (String secretName : mSecretNames) {
+            blackhole.consume(EncryptedData.loadInitializationVector(secretName, mContext));
+            blackhole.consume(EncryptedData.loadCiphertext(secretName, mContext));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for android.content.Context, keeping the app's files in the
+ * given directory.
+ */
+public class Context {
+    private final File directory;
+
+    public Context(File directory) {
+        this.directory = directory;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getNoBackupFilesDir() {
+        return new File(directory, "no_backup");
+    }
+}
@@ -0,0 +1,19 @@
+package android.content;
+
+import java.util.Map;
+
+/**
+ * JVM stand-in for android.content.SharedPreferences, for the calls the
+ * plugin makes.
+ */
+public interface SharedPreferences {
+    Map<String, ?> getAll();
+
+    Editor edit();
+
+    interface Editor {
+        Editor remove(String key);
+
+        boolean commit();
+    }
+}
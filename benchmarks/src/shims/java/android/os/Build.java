@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.Build, reporting Android 11.
+ */
+public final class Build {
+    private Build() {
+    }
+
+    public static final class VERSION {
+        public static final int SDK_INT = VERSION_CODES.R;
+    }
+
+    public static final class VERSION_CODES {
+        public static final int R = 30;
+    }
+}
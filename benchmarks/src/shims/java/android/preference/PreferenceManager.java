@@ -0,0 +1,40 @@
+package android.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * JVM stand-in for android.preference.PreferenceManager, whose default
+ * preferences are always empty, so there is never anything to migrate.
+ */
+public final class PreferenceManager {
+    private PreferenceManager() {
+    }
+
+    public static SharedPreferences getDefaultSharedPreferences(Context context) {
+        return new SharedPreferences() {
+            @Override
+            public Map<String, ?> getAll() {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public Editor edit() {
+                return new Editor() {
+                    @Override
+                    public Editor remove(String key) {
+                        return this;
+                    }
+
+                    @Override
+                    public boolean commit() {
+                        return true;
+                    }
+                };
+            }
+        };
+    }
+}
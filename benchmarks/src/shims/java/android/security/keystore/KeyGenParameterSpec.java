@@ -0,0 +1,46 @@
+package android.security.keystore;
+
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * JVM stand-in for android.security.keystore.KeyGenParameterSpec, only there
+ * for AndroidKeyStoreBackend to compile, which the benchmarks never use.
+ */
+public class KeyGenParameterSpec implements AlgorithmParameterSpec {
+    public static final class Builder {
+        public Builder(String keystoreAlias, int purposes) {
+        }
+
+        public Builder setBlockModes(String... blockModes) {
+            return this;
+        }
+
+        public Builder setEncryptionPaddings(String... paddings) {
+            return this;
+        }
+
+        public Builder setKeySize(int keySize) {
+            return this;
+        }
+
+        public Builder setUserAuthenticationRequired(boolean required) {
+            return this;
+        }
+
+        public Builder setInvalidatedByBiometricEnrollment(boolean invalidateKey) {
+            return this;
+        }
+
+        public Builder setUserAuthenticationValidityDurationSeconds(int seconds) {
+            return this;
+        }
+
+        public Builder setUserAuthenticationParameters(int timeout, int type) {
+            return this;
+        }
+
+        public KeyGenParameterSpec build() {
+            return new KeyGenParameterSpec();
+        }
+    }
+}
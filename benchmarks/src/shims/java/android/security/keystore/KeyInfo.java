@@ -0,0 +1,16 @@
+package android.security.keystore;
+
+import java.security.spec.KeySpec;
+
+/**
+ * JVM stand-in for android.security.keystore.KeyInfo.
+ */
+public class KeyInfo implements KeySpec {
+    public boolean isUserAuthenticationRequired() {
+        return false;
+    }
+
+    public int getUserAuthenticationValidityDurationSeconds() {
+        return 0;
+    }
+}
@@ -0,0 +1,9 @@
+package android.security.keystore;
+
+import java.security.InvalidKeyException;
+
+/**
+ * JVM stand-in for android.security.keystore.KeyPermanentlyInvalidatedException.
+ */
+public class KeyPermanentlyInvalidatedException extends InvalidKeyException {
+}
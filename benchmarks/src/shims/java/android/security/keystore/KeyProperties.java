@@ -0,0 +1,16 @@
+package android.security.keystore;
+
+/**
+ * JVM stand-in for android.security.keystore.KeyProperties.
+ */
+public final class KeyProperties {
+    public static final int PURPOSE_ENCRYPT = 1;
+    public static final int PURPOSE_DECRYPT = 2;
+    public static final String BLOCK_MODE_GCM = "GCM";
+    public static final String ENCRYPTION_PADDING_NONE = "NoPadding";
+    public static final int AUTH_DEVICE_CREDENTIAL = 1;
+    public static final int AUTH_BIOMETRIC_STRONG = 2;
+
+    private KeyProperties() {
+    }
+}
@@ -0,0 +1,15 @@
+package android.util;
+
+/**
+ * JVM stand-in for android.util.Base64, decoding only.
+ */
+public final class Base64 {
+    public static final int DEFAULT = 0;
+
+    private Base64() {
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+}
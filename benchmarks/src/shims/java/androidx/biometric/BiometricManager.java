@@ -0,0 +1,11 @@
+package androidx.biometric;
+
+/**
+ * JVM stand-in for androidx.biometric.BiometricManager.
+ */
+public class BiometricManager {
+    public interface Authenticators {
+        int BIOMETRIC_STRONG = 0x000F;
+        int DEVICE_CREDENTIAL = 0x8000;
+    }
+}
@@ -0,0 +1,39 @@
+package androidx.biometric;
+
+/**
+ * JVM stand-in for androidx.biometric.BiometricPrompt, for building the
+ * PromptInfo only.
+ */
+public class BiometricPrompt {
+    public static class PromptInfo {
+        public static class Builder {
+            public Builder setTitle(CharSequence title) {
+                return this;
+            }
+
+            public Builder setSubtitle(CharSequence subtitle) {
+                return this;
+            }
+
+            public Builder setDescription(CharSequence description) {
+                return this;
+            }
+
+            public Builder setConfirmationRequired(boolean confirmationRequired) {
+                return this;
+            }
+
+            public Builder setNegativeButtonText(CharSequence negativeButtonText) {
+                return this;
+            }
+
+            public Builder setAllowedAuthenticators(int allowedAuthenticators) {
+                return this;
+            }
+
+            public PromptInfo build() {
+                return new PromptInfo();
+            }
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.tokenized.cordova.system_unlock;
 
-import java.util.Objects;
-
-public enum ActionBatchControl {
+public enum ActionBatchControl implements EnumLookup.Coded {
     NONE(0, null),
     START(1, "start"),
     CONTINUE(2, "continue");
@@ -10,34 +8,29 @@ public enum ActionBatchControl {
     private int value;
     private String jsonString;
 
+    private static final EnumLookup<ActionBatchControl> sLookup = new EnumLookup<>(values());
+
     ActionBatchControl(int value, String jsonString) {
         this.value = value;
         this.jsonString = jsonString;
     }
 
+    @Override
     public int getValue() {
         return value;
     }
 
+    @Override
     public String getJsonString() {
         return jsonString;
     }
 
     public static ActionBatchControl fromValue(int val) {
-        for (ActionBatchControl scope : values()) {
-            if (scope.getValue() == val) {
-                return scope;
-            }
-        }
-        return null;
+        return sLookup.fromValue(val);
     }
 
     public static ActionBatchControl fromJsonString(String jsonString) {
-        for (ActionBatchControl scope : values()) {
-            if (Objects.equals(scope.getJsonString(), jsonString)) {
-                return scope;
-            }
-        }
-        return NONE;
+        ActionBatchControl value = sLookup.fromJsonString(jsonString);
+        return value != null ? value : NONE;
     }
 }
@@ -0,0 +1,181 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyInfo;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+
+/**
+ * Keeps keys in the Android keystore, through KeyStoreCache, with Ciphers
+ * from CipherPool.
+ */
+class AndroidKeyStoreBackend implements KeyStoreBackend {
+    private static final String TAG = "AndroidKeyStoreBackend";
+
+    private static final int KEY_SIZE = 256;
+    private static final String ANDROID_KEYSTORE = KeyStoreCache.ANDROID_KEYSTORE;
+    private static final String KEY_ALGORITHM_AES = "AES"; // KeyProperties.KEY_ALGORITHM_AES
+
+    // How long keys locked after use stay usable after authenticating
+    static final int LOCK_AFTER_USE_VALIDITY_SECONDS = 5;
+
+    // KeyGenerator isn't thread-safe, but can be reused for several keys
+    private final ThreadLocal<KeyGenerator> keyGenerator = new ThreadLocal<>();
+
+    // The authentication validity of each key, as read from its KeyInfo,
+    // which takes a round trip to the keystore daemon
+    private final Map<String, Integer> validitySeconds = new ConcurrentHashMap<>();
+
+    @Override
+    public void prewarm() throws GeneralSecurityException, IOException {
+        KeyStoreCache.containsAlias(PromptInfo.DEFAULT_SECRET_NAME);
+        CipherPool.prewarm();
+    }
+
+    @Override
+    public boolean containsKey(String keyName) throws GeneralSecurityException, IOException {
+        return KeyStoreCache.containsAlias(keyName);
+    }
+
+    @Override
+    public SecretKey getKey(String keyName) throws GeneralSecurityException, IOException {
+        return (SecretKey) KeyStoreCache.getKey(keyName);
+    }
+
+    @Override
+    public SecretKey createKey(String keyName, PromptInfo promptInfo) throws GeneralSecurityException, IOException {
+        try {
+            if (KeyStoreCache.containsAlias(keyName)) {
+                KeyStoreCache.deleteEntry(keyName);
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "createKey failed to delete existing entry", e);
+        }
+
+        KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(
+            keyName,
+            KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT
+        )
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .setKeySize(KEY_SIZE)
+            .setUserAuthenticationRequired(true)
+            .setInvalidatedByBiometricEnrollment(
+                promptInfo.getScope() == SecretScope.ONE_BIOMETRIC);
+
+        boolean perOperation = promptInfo.usesPerOperationKeys();
+        // Per-operation keys are only usable through a Cipher authenticated by the prompt
+        int timeout = perOperation ? 0 : LOCK_AFTER_USE_VALIDITY_SECONDS;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            if (promptInfo.getLockBehavior() == LockBehavior.LOCK_WITH_DEVICE) {
+                builder.setUserAuthenticationValidityDurationSeconds(
+                    promptInfo.getAndroidAutoLockTimeSeconds());
+            } else {
+                builder.setUserAuthenticationValidityDurationSeconds(perOperation ? -1 : timeout);
+            }
+        } else {
+            switch (promptInfo.getLockBehavior()) {
+                case LOCK_WITH_DEVICE:
+                    builder.setUserAuthenticationParameters(
+                        promptInfo.getAndroidAutoLockTimeSeconds(),
+                        KeyProperties.AUTH_BIOMETRIC_STRONG
+                            | KeyProperties.AUTH_DEVICE_CREDENTIAL
+                    );
+                    break;
+                case LOCK_AFTER_USE:
+                    builder.setUserAuthenticationParameters(
+                        timeout,
+                        KeyProperties.AUTH_BIOMETRIC_STRONG
+                            | KeyProperties.AUTH_DEVICE_CREDENTIAL
+                    );
+                    break;
+                case LOCK_AFTER_USE_BIOMETRIC_ONLY:
+                    builder.setUserAuthenticationParameters(
+                        timeout,
+                        KeyProperties.AUTH_BIOMETRIC_STRONG
+                    );
+                    break;
+            }
+        }
+
+        KeyGenerator generator = keyGenerator.get();
+        if (generator == null) {
+            generator = KeyGenerator.getInstance(KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
+            keyGenerator.set(generator);
+        }
+        generator.init(builder.build());
+
+        SecretKey secretKey = generator.generateKey();
+        KeyStoreCache.onKeyCreated(keyName, secretKey);
+        validitySeconds.put(keyName, promptInfo.getLockBehavior() == LockBehavior.LOCK_WITH_DEVICE
+            ? promptInfo.getAndroidAutoLockTimeSeconds()
+            : timeout);
+        return secretKey;
+    }
+
+    @Override
+    public int getAuthenticationValiditySeconds(String keyName) throws GeneralSecurityException, IOException {
+        Integer validity = validitySeconds.get(keyName);
+        if (validity == null) {
+            SecretKey secretKey = getKey(keyName);
+            if (secretKey == null) {
+                return -1;
+            }
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(secretKey.getAlgorithm(), ANDROID_KEYSTORE);
+            KeyInfo keyInfo = (KeyInfo) factory.getKeySpec(secretKey, KeyInfo.class);
+            // Per-operation keys report -1 before Android 11 and 0 since
+            validity = keyInfo.isUserAuthenticationRequired()
+                ? Math.max(0, keyInfo.getUserAuthenticationValidityDurationSeconds())
+                : Integer.MAX_VALUE;
+            validitySeconds.put(keyName, validity);
+        }
+        return validity;
+    }
+
+    @Override
+    public void deleteKey(String keyName) throws GeneralSecurityException, IOException {
+        validitySeconds.remove(keyName);
+        KeyStoreCache.deleteEntry(keyName);
+        CipherPool.evictAll();
+    }
+
+    @Override
+    public void deleteKeys(String[] keyNames) throws GeneralSecurityException, IOException {
+        for (String keyName : keyNames) {
+            validitySeconds.remove(keyName);
+            if (KeyStoreCache.containsAlias(keyName)) {
+                KeyStoreCache.deleteEntry(keyName);
+            }
+        }
+        // Once for all of the keys, rather than once per key
+        CipherPool.evictAll();
+    }
+
+    @Override
+    public void onKeyInvalidated(String keyName) {
+        validitySeconds.remove(keyName);
+        KeyStoreCache.invalidateKey(keyName);
+        CipherPool.evictAll();
+    }
+
+    @Override
+    public Cipher acquireCipher() throws GeneralSecurityException {
+        return CipherPool.acquire();
+    }
+
+    @Override
+    public void releaseCipher(Cipher cipher) {
+        CipherPool.release(cipher);
+    }
+}
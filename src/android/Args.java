@@ -1,5 +1,6 @@
 package com.tokenized.cordova.system_unlock;
 
+import android.util.Base64;
 import android.util.Log;
 
 import org.json.JSONArray;
@@ -39,9 +40,9 @@ public class Args {
 
     public String getString(String name, String defaultValue) {
         try {
-            if (getArgsObject().optString(name) != null
-                && !getArgsObject().optString(name).isEmpty()){
-                return getArgsObject().getString(name);
+            String value = getArgsObject().optString(name);
+            if (value != null && !value.isEmpty()) {
+                return value;
             }
         } catch (JSONException e) {
             Log.e(TAG, "Can't parse '" + name + "'. Default will be used.", e);
@@ -49,6 +50,56 @@ public class Args {
         return defaultValue;
     }
 
+    public String[] getStringArray(String name, String[] defaultValue) {
+        try {
+            JSONArray array = getArgsObject().optJSONArray(name);
+            if (array != null) {
+                String[] values = new String[array.length()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = array.getString(i);
+                }
+                return values;
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Can't parse '" + name + "'. Default will be used.", e);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Reads the named field of every object in an array of objects.
+     */
+    public String[] getStringArray(String name, String field, String[] defaultValue) {
+        try {
+            JSONArray array = getArgsObject().optJSONArray(name);
+            if (array != null) {
+                String[] values = new String[array.length()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = array.getJSONObject(i).getString(field);
+                }
+                return values;
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Can't parse '" + name + "'. Default will be used.", e);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Reads an ArrayBuffer passed as an argument of its own after the options
+     * object, which is the only way the Cordova bridge transfers binary data.
+     */
+    public byte[] getArrayBuffer(int index, byte[] defaultValue) {
+        try {
+            if (jsonArray.length() > index && !jsonArray.isNull(index)) {
+                return Base64.decode(jsonArray.getString(index), Base64.DEFAULT);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Can't parse argument " + index + ". Default will be used.", e);
+        }
+        return defaultValue;
+    }
+
     private JSONObject getArgsObject() throws JSONException {
         if (this.argsObject != null) {
             return this.argsObject;
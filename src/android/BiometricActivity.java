@@ -1,41 +1,78 @@
 package com.tokenized.cordova.system_unlock;
 
+import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.security.keystore.UserNotAuthenticatedException;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.biometric.BiometricManager;
 import androidx.biometric.BiometricPrompt;
 
+import org.apache.cordova.PluginResult;
+
 import java.util.concurrent.Executor;
 
 import javax.crypto.Cipher;
 
 public class BiometricActivity extends AppCompatActivity {
+    // Timestamps in PluginMetrics time, for timing the launch and the result
+    static final String LAUNCHED_AT_EXTRA = "launchedAt";
+    static final String FINISHED_AT_EXTRA = "finishedAt";
+
+    private static final String REQUEST_ID_EXTRA = "requestId";
+
+    // How long the call and its result wait to be taken before being dropped
+    private static final long REGISTRY_TIMEOUT_MILLIS = 60 * 1000;
+
+    // Both keyed by SystemUnlock's request ID. Results, which may hold
+    // secrets, are handed back in-process rather than marshalled through the
+    // result Intent, so they aren't copied through Binder or bound by its
+    // transaction size limit
+    private static final InProcessRegistry<Call> sCalls =
+        new InProcessRegistry<>(REGISTRY_TIMEOUT_MILLIS);
+    private static final InProcessRegistry<PluginResult> sResults =
+        new InProcessRegistry<>(REGISTRY_TIMEOUT_MILLIS);
+
+    private static int sLayout = 0;
+
+    private int mRequestId;
     private PromptInfo mPromptInfo;
+    private PluginExecutor mExecutor;
     private CryptographyManager mCryptographyManager;
+    private SecretOperations mSecretOperations;
     private BiometricPrompt mBiometricPrompt;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setTitle(null);
-        int layout = getResources()
-            .getIdentifier("biometric_activity", "layout", getPackageName());
-        setContentView(layout);
+        if (sLayout == 0) {
+            sLayout = getResources()
+                .getIdentifier("biometric_activity", "layout", getPackageName());
+        }
+        setContentView(sLayout);
 
         if (savedInstanceState != null) {
             return;
         }
 
-        mCryptographyManager = new CryptographyManagerImpl();
-        mPromptInfo = new PromptInfo.Builder(getIntent().getExtras()).build();
+        long launchedAt = getIntent().getLongExtra(LAUNCHED_AT_EXTRA, 0);
+        if (launchedAt != 0) {
+            PluginMetrics.record(PluginMetrics.Phase.ACTIVITY_LAUNCH, launchedAt);
+        }
+
+        mCryptographyManager = CryptographyManagerImpl.getInstance();
+        mRequestId = getIntent().getIntExtra(REQUEST_ID_EXTRA, 0);
+        Call call = sCalls.take(mRequestId);
+        if (call == null) {
+            finishWithError(PluginError.BIOMETRIC_UNKNOWN_ERROR, "The call was lost");
+            return;
+        }
+        mPromptInfo = call.promptInfo;
+        mExecutor = call.executor;
+        mSecretOperations = new SecretOperations(this, mCryptographyManager, mPromptInfo);
         final Handler handler = new Handler(Looper.getMainLooper());
         Executor executor = handler::post;
         mBiometricPrompt = new BiometricPrompt(this, executor, mAuthenticationCallback);
@@ -49,204 +86,75 @@ public class BiometricActivity extends AppCompatActivity {
         }
     }
 
-    private void runAction() throws CryptoException {
-        switch (mPromptInfo.getType()) {
-            case CHALLENGE:
-                challenge();
-                return;
-            case SET_SECRET:
-                setSecret();
-                return;
-            case GET_SECRET:
-                getSecret();
-                return;
-            case DELETE_SECRET:
-                deleteSecret();
-                return;
-        }
-        throw new CryptoException(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
+    /**
+     * Returns the Intent to start the activity with to carry out the call.
+     * SystemUnlock only starts the activity once it knows the user has to be
+     * prompted, so the activity always prompts straight away. The operation
+     * itself runs on the executor once the user has authenticated.
+     */
+    static Intent createIntent(Context context, int requestId, PromptInfo promptInfo,
+            PluginExecutor executor) {
+        Intent intent = new Intent(context, BiometricActivity.class);
+        sCalls.put(requestId, new Call(promptInfo, executor));
+        intent.putExtra(REQUEST_ID_EXTRA, requestId);
+        return intent;
     }
 
-    private BiometricPrompt.PromptInfo createPromptInfo() {
-        BiometricPrompt.PromptInfo.Builder builder = new BiometricPrompt.PromptInfo.Builder()
-            .setTitle(mPromptInfo.getTitle())
-            .setSubtitle(mPromptInfo.getSubtitle())
-            .setDescription(mPromptInfo.getDescription())
-            .setConfirmationRequired(mPromptInfo.getConfirmationRequired());
-
-        if (mPromptInfo.getLockBehavior() == LockBehavior.LOCK_AFTER_USE_BIOMETRIC_ONLY
-                || Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
-            builder.setAllowedAuthenticators(BiometricManager.Authenticators.BIOMETRIC_STRONG);
-            builder.setNegativeButtonText(mPromptInfo.getCancelButtonTitle());
-        } else {
-            builder.setAllowedAuthenticators(
-                BiometricManager.Authenticators.BIOMETRIC_STRONG
-                    | BiometricManager.Authenticators.DEVICE_CREDENTIAL
-            );
-        }
-
-        return builder.build();
-    }
-
-    private void challenge() {
-        mBiometricPrompt.authenticate(createPromptInfo());
+    /**
+     * Returns the result the activity finished the call with successfully, or
+     * null if there is none, and drops anything else still registered for the
+     * call. To be called once the activity has finished, however it did.
+     */
+    @Nullable
+    static PluginResult takeResult(int requestId) {
+        sCalls.take(requestId);
+        return sResults.take(requestId);
     }
 
-    private void setSecret() throws CryptoException {
-        if (mPromptInfo.getSecret() == null) {
-            throw new CryptoException(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
-        }
-
-        if (mPromptInfo.getBatch() != ActionBatchControl.START) {
-            try {
-                setSecretOnceAuthenticated();
-                return;
-            } catch (CryptoException e) {
-                if (e.getCause() instanceof UserNotAuthenticatedException) {
-                    if (mPromptInfo.getInteractionNotAllowed()) {
-                        throw e;
-                    }
-                } else {
-                    throw e;
-                }
-            }
-        }
-
-        mBiometricPrompt.authenticate(createPromptInfo());
-    }
-
-    private void setSecretOnceAuthenticated() throws CryptoException {
-        Cipher cipher = mCryptographyManager
-            .getInitializedCipherForEncryption(mPromptInfo);
-        String text = mPromptInfo.getSecret();
-        EncryptedData encryptedData = mCryptographyManager
-            .encryptData(text, cipher);
-        encryptedData.save(mPromptInfo.getSecretName(), this);
-        finishWithSuccess();
-    }
-
-    private void getSecret() throws CryptoException {
-        if (mPromptInfo.getBatch() != ActionBatchControl.START) {
-            try {
-                getSecretOnceAuthenticated();
-                return;
-            } catch (CryptoException e) {
-                if (e.getCause() instanceof UserNotAuthenticatedException) {
-                    if (mPromptInfo.getInteractionNotAllowed()) {
-                        throw e;
-                    }
-                } else {
-                    throw e;
-                }
-            }
-        }
-
-        mBiometricPrompt.authenticate(createPromptInfo());
-    }
-
-    private void getSecretOnceAuthenticated() throws CryptoException {
-        byte[] initializationVector = EncryptedData
-            .loadInitializationVector(mPromptInfo.getSecretName(), this);
-        Cipher cipher = mCryptographyManager
-            .getInitializedCipherForDecryption(mPromptInfo.getSecretName(), initializationVector);
-        byte[] ciphertext = EncryptedData.loadCiphertext(mPromptInfo.getSecretName(), this);
-        String secret = mCryptographyManager.decryptData(ciphertext, cipher);
-        if (secret == null) {
-            throw new CryptoException(PluginError.BIOMETRIC_NO_SECRET_FOUND);
-        }
-        Intent intent = new Intent();
-        intent.putExtra(PromptInfo.SECRET_EXTRA, secret);
-        finishWithSuccess(intent);
-    }
+    private void runAction() throws CryptoException {
+        mSecretOperations.checkArgs();
 
-    private void deleteSecret() throws CryptoException {
-        if (mPromptInfo.getBatch() == ActionBatchControl.CONTINUE) {
-            try {
-                deleteSecretOnceAuthenticated();
-                return;
-            } catch (CryptoException e) {
-                if (e.getCause() instanceof UserNotAuthenticatedException) {
-                    if (mPromptInfo.getInteractionNotAllowed()) {
-                        throw e;
-                    }
-                } else {
-                    throw e;
-                }
-            }
+        mAuthenticationCallback.onPromptShown();
+        if (mSecretOperations.isBoundToPrompt()) {
+            Cipher cipher = mSecretOperations.prepareCipher();
+            mBiometricPrompt.authenticate(mPromptInfo.createBiometricPromptInfo(),
+                new BiometricPrompt.CryptoObject(cipher));
+        } else {
+            mBiometricPrompt.authenticate(mPromptInfo.createBiometricPromptInfo());
         }
-
-        mBiometricPrompt.authenticate(createPromptInfo());
     }
 
-    private void deleteSecretOnceAuthenticated() throws CryptoException {
-        mCryptographyManager.removeKey(mPromptInfo.getSecretName());
-        finishWithSuccess();
-    }
-
-    private BiometricPrompt.AuthenticationCallback mAuthenticationCallback =
-        new BiometricPrompt.AuthenticationCallback() {
-            @Override
-            public void onAuthenticationError(int errorCode, @NonNull CharSequence errString) {
-                onError(errorCode, errString);
-            }
-
-            @Override
-            public void onAuthenticationSucceeded(@NonNull BiometricPrompt.AuthenticationResult result) {
+    private final SecretPromptCallback mAuthenticationCallback = new SecretPromptCallback() {
+        @Override
+        void onAuthenticated(Cipher cipher) {
+            // Keystore and storage work stays off the main thread, and the
+            // activity stays up until it's done
+            Runnable run = () -> {
                 try {
-                    switch (mPromptInfo.getType()) {
-                        case SET_SECRET:
-                            setSecretOnceAuthenticated();
-                            break;
-                        case GET_SECRET:
-                            getSecretOnceAuthenticated();
-                            break;
-                        case DELETE_SECRET:
-                            deleteSecretOnceAuthenticated();
-                            break;
-                        default:
-                            finishWithSuccess();
-                            break;
-                    }
+                    PluginResult result = mSecretOperations.run(true, cipher);
+                    runOnUiThread(() -> finishWithSuccess(result));
                 } catch (CryptoException e) {
-                    finishWithError(e);
+                    runOnUiThread(() -> finishWithError(e));
                 } catch (Exception e) {
-                    finishWithError(PluginError.BIOMETRIC_UNKNOWN_ERROR, e.getMessage());
+                    runOnUiThread(() ->
+                        finishWithError(PluginError.BIOMETRIC_UNKNOWN_ERROR, e.getMessage()));
                 }
+            };
+            if (!mExecutor.execute(run)) {
+                run.run();
             }
-
-            @Override
-            public void onAuthenticationFailed() {
-                onError(
-                    PluginError.BIOMETRIC_AUTHENTICATION_FAILED.getValue(),
-                    PluginError.BIOMETRIC_AUTHENTICATION_FAILED.getMessage()
-                );
-            }
-        };
-
-    private void onError(int errorCode, @NonNull CharSequence errString) {
-        switch (errorCode) {
-            case BiometricPrompt.ERROR_USER_CANCELED:
-            case BiometricPrompt.ERROR_CANCELED:
-            case BiometricPrompt.ERROR_NEGATIVE_BUTTON:
-                finishWithError(PluginError.BIOMETRIC_DISMISSED);
-                return;
-            case BiometricPrompt.ERROR_LOCKOUT:
-                finishWithError(PluginError.BIOMETRIC_LOCKED_OUT.getValue(), errString.toString());
-                break;
-            case BiometricPrompt.ERROR_LOCKOUT_PERMANENT:
-                finishWithError(PluginError.BIOMETRIC_LOCKED_OUT_PERMANENT.getValue(), errString.toString());
-                break;
-            default:
-                finishWithError(errorCode, errString.toString());
         }
-    }
 
-    private void finishWithSuccess() {
-        setResult(RESULT_OK);
-        finish();
-    }
+        @Override
+        void onError(int code, String message) {
+            finishWithError(code, message);
+        }
+    };
 
-    private void finishWithSuccess(Intent intent) {
+    private void finishWithSuccess(PluginResult result) {
+        sResults.put(mRequestId, result);
+        Intent intent = new Intent();
+        intent.putExtra(FINISHED_AT_EXTRA, PluginMetrics.start());
         setResult(RESULT_OK, intent);
         finish();
     }
@@ -255,10 +163,6 @@ public class BiometricActivity extends AppCompatActivity {
         finishWithError(e.getError().getValue(), e.getMessage());
     }
 
-    private void finishWithError(PluginError error) {
-        finishWithError(error.getValue(), error.getMessage());
-    }
-
     private void finishWithError(PluginError error, String message) {
         finishWithError(error.getValue(), message);
     }
@@ -267,7 +171,18 @@ public class BiometricActivity extends AppCompatActivity {
         Intent data = new Intent();
         data.putExtra("code", code);
         data.putExtra("message", message);
+        data.putExtra(FINISHED_AT_EXTRA, PluginMetrics.start());
         setResult(RESULT_CANCELED, data);
         finish();
     }
+
+    private static final class Call {
+        final PromptInfo promptInfo;
+        final PluginExecutor executor;
+
+        Call(PromptInfo promptInfo, PluginExecutor executor) {
+            this.promptInfo = promptInfo;
+            this.executor = executor;
+        }
+    }
 }
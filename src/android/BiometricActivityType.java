@@ -1,46 +1,45 @@
 package com.tokenized.cordova.system_unlock;
 
-import java.util.Objects;
-
-public enum BiometricActivityType {
+public enum BiometricActivityType implements EnumLookup.Coded {
     IS_AVAILABLE(1, "isAvailable"),
     CHALLENGE(2, "challenge"),
     SET_SECRET(3, "setSecret"),
     HAS_SECRET(4, "hasSecret"),
     GET_SECRET(5, "getSecret"),
-    DELETE_SECRET(6, "deleteSecret");
+    DELETE_SECRET(6, "deleteSecret"),
+    GET_SECRETS(7, "getSecrets"),
+    SET_SECRETS(8, "setSecrets"),
+    BEGIN_SESSION(9, "beginSession"),
+    END_SESSION(10, "endSession"),
+    LIST_SECRETS(11, "listSecrets"),
+    HAS_SECRETS(12, "hasSecrets"),
+    DELETE_SECRETS(13, "deleteSecrets");
 
     private int value;
     private String jsonString;
 
+    private static final EnumLookup<BiometricActivityType> sLookup = new EnumLookup<>(values());
+
     BiometricActivityType(int value, String jsonString) {
         this.value = value;
         this.jsonString = jsonString;
     }
 
+    @Override
     public int getValue() {
         return value;
     }
 
+    @Override
     public String getJsonString() {
         return jsonString;
     }
 
     public static BiometricActivityType fromValue(int val) {
-        for (BiometricActivityType type : values()) {
-            if (type.getValue() == val) {
-                return type;
-            }
-        }
-        return null;
+        return sLookup.fromValue(val);
     }
 
     public static BiometricActivityType fromJsonString(String jsonString) {
-        for (BiometricActivityType scope : values()) {
-            if (Objects.equals(scope.getJsonString(), jsonString)) {
-                return scope;
-            }
-        }
-        return null;
+        return sLookup.fromJsonString(jsonString);
     }
 }
@@ -0,0 +1,296 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * File-backed store for large secrets, encrypted in independently
+ * authenticated chunks so that they can be written and read without holding
+ * the whole ciphertext in memory, and read by byte range.
+ *
+ * Each secret's chunks are encrypted in software with a random data key. The
+ * data key itself is encrypted with the secret's keystore key and kept in the
+ * SecretStore like any other secret, so existence checks and authentication
+ * work the same way for chunked secrets. Each chunk is bound to its position
+ * and the total length through its additional authenticated data, so chunks
+ * can't be reordered, dropped or truncated unnoticed.
+ */
+final class ChunkedSecretStore {
+    private static final String DIRECTORY = "system_unlock/blobs";
+    private static final String SUFFIX = ".blob";
+
+    private static final int MAGIC = 0x53554231; // "SUB1"
+    private static final int HEADER_SIZE = 16;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int IV_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int DATA_KEY_SIZE = 32;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    /**
+     * Supplies the plaintext to encrypt, a bufferful at a time.
+     */
+    private interface Source {
+        /**
+         * Appends as much of the remaining plaintext as fits in the buffer, and
+         * returns whether there is more left.
+         */
+        boolean fill(ByteBuffer buffer) throws IOException;
+    }
+
+    private ChunkedSecretStore() {
+    }
+
+    static byte[] newDataKey() {
+        byte[] dataKey = new byte[DATA_KEY_SIZE];
+        sRandom.nextBytes(dataKey);
+        return dataKey;
+    }
+
+    static boolean exists(String name, Context context) {
+        return getFile(name, context).exists();
+    }
+
+    static void delete(String name, Context context) {
+        File file = getFile(name, context);
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Encrypts the secret chunk by chunk into a new file, which then replaces
+     * any previous file for the same name.
+     */
+    static void write(String name, String plaintext, byte[] dataKey, Context context) throws CryptoException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        CharBuffer input = CharBuffer.wrap(plaintext);
+        write(name, buffer -> {
+            CoderResult result = encoder.encode(input, buffer, true);
+            if (result.isUnderflow()) {
+                encoder.flush(buffer);
+                return false;
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            return true;
+        }, utf8Length(plaintext), dataKey, context);
+    }
+
+    static void write(String name, byte[] plaintext, byte[] dataKey, Context context) throws CryptoException {
+        ByteBuffer input = ByteBuffer.wrap(plaintext);
+        write(name, buffer -> {
+            ByteBuffer slice = input.duplicate();
+            slice.limit(slice.position() + Math.min(buffer.remaining(), input.remaining()));
+            buffer.put(slice);
+            input.position(slice.limit());
+            return input.hasRemaining();
+        }, plaintext.length, dataKey, context);
+    }
+
+    private static void write(String name, Source source, long plaintextLength, byte[] dataKey, Context context) throws CryptoException {
+        File file = getFile(name, context);
+        File temporary = new File(file.getPath() + ".tmp");
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new CryptoException("Can't create " + directory, null);
+        }
+
+        try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(CHUNK_SIZE)
+                .putLong(plaintextLength);
+            header.flip();
+            writeFully(channel, header);
+
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            SecretKeySpec key = new SecretKeySpec(dataKey, "AES");
+            // Room for a whole chunk plus a character that didn't fit in it
+            ByteBuffer pending = ByteBuffer.allocate(CHUNK_SIZE + 8);
+            ByteBuffer output = ByteBuffer.allocate(IV_SIZE + CHUNK_SIZE + TAG_SIZE);
+            byte[] iv = new byte[IV_SIZE];
+            long index = 0;
+            boolean inputDone = false;
+            while (true) {
+                if (!inputDone) {
+                    inputDone = !source.fill(pending);
+                }
+                pending.flip();
+                if (pending.remaining() < CHUNK_SIZE && !inputDone) {
+                    pending.compact();
+                    continue;
+                }
+
+                // Every chunk but the last holds exactly CHUNK_SIZE bytes
+                ByteBuffer chunk = pending.duplicate();
+                chunk.limit(chunk.position() + Math.min(CHUNK_SIZE, pending.remaining()));
+                sRandom.nextBytes(iv);
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, iv));
+                cipher.updateAAD(associatedData(index, plaintextLength));
+                output.clear();
+                output.put(iv);
+                cipher.doFinal(chunk, output);
+                output.flip();
+                writeFully(channel, output);
+                index++;
+
+                pending.position(chunk.limit());
+                pending.compact();
+                if (inputDone && pending.position() == 0) {
+                    break;
+                }
+            }
+            channel.force(true);
+        } catch (Exception e) {
+            temporary.delete();
+            throw new CryptoException(e.getMessage(), e);
+        }
+
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new CryptoException("Can't replace " + file, null);
+        }
+    }
+
+    /**
+     * Decrypts the given byte range of the secret into the output stream, only
+     * reading and decrypting the chunks which overlap the range. A negative
+     * length reads to the end of the secret.
+     */
+    static void read(String name, byte[] dataKey, long offset, long length, OutputStream out, Context context) throws CryptoException {
+        File file = getFile(name, context);
+        if (!file.exists()) {
+            throw new CryptoException(PluginError.BIOMETRIC_NO_SECRET_FOUND);
+        }
+
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new CryptoException("Unrecognized chunked secret " + file, null);
+            }
+            int chunkSize = header.getInt();
+            long plaintextLength = header.getLong();
+
+            long start = Math.max(0, Math.min(offset, plaintextLength));
+            long end = length < 0 ? plaintextLength : Math.min(plaintextLength, start + length);
+            if (start >= end) {
+                return;
+            }
+
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            SecretKeySpec key = new SecretKeySpec(dataKey, "AES");
+            ByteBuffer input = ByteBuffer.allocate(IV_SIZE + chunkSize + TAG_SIZE);
+            byte[] plaintext = new byte[chunkSize];
+            byte[] iv = new byte[IV_SIZE];
+            try {
+                for (long index = start / chunkSize; index * chunkSize < end; index++) {
+                    long chunkStart = index * chunkSize;
+                    int chunkLength = (int) Math.min(chunkSize, plaintextLength - chunkStart);
+                    long position = HEADER_SIZE + index * (IV_SIZE + chunkSize + TAG_SIZE);
+
+                    input.clear();
+                    input.limit(IV_SIZE + chunkLength + TAG_SIZE);
+                    readFully(channel, input, position);
+                    input.flip();
+                    input.get(iv);
+
+                    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, iv));
+                    cipher.updateAAD(associatedData(index, plaintextLength));
+                    int decrypted = cipher.doFinal(
+                        input.array(), IV_SIZE, chunkLength + TAG_SIZE, plaintext, 0);
+
+                    int from = (int) Math.max(0, start - chunkStart);
+                    int to = (int) Math.min(decrypted, end - chunkStart);
+                    out.write(plaintext, from, to - from);
+                }
+            } finally {
+                Arrays.fill(plaintext, (byte) 0);
+            }
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException(e.getMessage(), e);
+        }
+    }
+
+    private static byte[] associatedData(long index, long plaintextLength) {
+        return ByteBuffer.allocate(16)
+            .putLong(index)
+            .putLong(plaintextLength)
+            .array();
+    }
+
+    static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of chunked secret");
+            }
+            position += read;
+        }
+    }
+
+    private static File getFile(String name, Context context) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(name.getBytes(StandardCharsets.UTF_8));
+            StringBuilder fileName = new StringBuilder();
+            for (byte b : digest) {
+                fileName.append(String.format("%02x", b));
+            }
+            fileName.append(SUFFIX);
+            return new File(new File(context.getNoBackupFilesDir(), DIRECTORY), fileName.toString());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.tokenized.cordova.system_unlock;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Per-thread pool of Cipher instances for the transformation used by
+ * CryptographyManagerImpl, so the JCE provider lookup in Cipher.getInstance
+ * is only paid once per thread. Callers must always init a Cipher taken from
+ * the pool, and only release it once it has completed an operation.
+ */
+final class CipherPool {
+    private static final int MAX_CIPHERS_PER_THREAD = 4;
+
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    // Bumped to discard the pooled Ciphers of every thread at once
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private static final ThreadLocal<Pool> sPool = ThreadLocal.withInitial(Pool::new);
+
+    private static final class Pool {
+        private int generation = sGeneration.get();
+        private final ArrayDeque<Cipher> ciphers = new ArrayDeque<>();
+    }
+
+    private CipherPool() {
+    }
+
+    static Cipher acquire() throws NoSuchPaddingException, NoSuchAlgorithmException {
+        Pool pool = currentPool();
+        Cipher cipher = pool.ciphers.pollFirst();
+        if (cipher != null) {
+            return cipher;
+        }
+        return Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * Looks up the provider once ahead of time and leaves the resulting
+     * Cipher in the calling thread's pool.
+     */
+    static void prewarm() throws NoSuchPaddingException, NoSuchAlgorithmException {
+        Pool pool = currentPool();
+        if (pool.ciphers.isEmpty()) {
+            pool.ciphers.offerFirst(Cipher.getInstance(TRANSFORMATION));
+        }
+    }
+
+    static void release(Cipher cipher) {
+        if (cipher == null || !TRANSFORMATION.equals(cipher.getAlgorithm())) {
+            return;
+        }
+        Pool pool = currentPool();
+        if (pool.ciphers.size() < MAX_CIPHERS_PER_THREAD) {
+            pool.ciphers.offerFirst(cipher);
+        }
+    }
+
+    /**
+     * Discards the pooled Ciphers of all threads, for example because the key
+     * one of them was last initialized with has been removed or invalidated.
+     */
+    static void evictAll() {
+        sGeneration.incrementAndGet();
+    }
+
+    private static Pool currentPool() {
+        Pool pool = sPool.get();
+        int generation = sGeneration.get();
+        if (pool.generation != generation) {
+            pool.ciphers.clear();
+            pool.generation = generation;
+        }
+        return pool;
+    }
+}
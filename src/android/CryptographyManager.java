@@ -4,19 +4,42 @@ import javax.crypto.Cipher;
 
 interface CryptographyManager {
     /**
-     * Creates a secure key in the Android keystore using the options specified,
+     * Creates a secure key in the keystore using the options specified,
      * and returns a Cipher ready to encrypt data with the key. Note that if
      * a key has previously been created it will be used without modification.
      */
     Cipher getInitializedCipherForEncryption(PromptInfo promptInfo) throws CryptoException;
 
+    /**
+     * Creates secure keys for each of the given names in one pass, using the
+     * options specified for all of them, and returns Ciphers ready to encrypt
+     * data with each key, in the same order as the names. Existing keys are
+     * replaced one by one, so a failure part way through leaves the keys
+     * before it replaced, and the secrets stored with them undecryptable.
+     * When there are several keys, failing because the user has yet to
+     * authenticate, by far the most likely, is checked for before replacing
+     * any of them.
+     */
+    Cipher[] getInitializedCiphersForEncryption(String[] keyNames, PromptInfo promptInfo) throws CryptoException;
+
+    /**
+     * Returns a Cipher ready to encrypt data with the named key, creating the
+     * key using the options specified only if it doesn't exist yet.
+     */
+    Cipher getInitializedCipherForEncryption(String keyName, PromptInfo promptInfo) throws CryptoException;
+
     /**
      * Encrypts data using a Cipher set up by [getInitializedCipherForEncryption]
      */
     EncryptedData encryptData(String plaintext, Cipher cipher) throws CryptoException;
 
     /**
-     * Finds a secure key in the Android keystore and returns a Cipher ready to
+     * Encrypts raw bytes using a Cipher set up by [getInitializedCipherForEncryption]
+     */
+    EncryptedData encryptData(byte[] plaintext, Cipher cipher) throws CryptoException;
+
+    /**
+     * Finds a secure key in the keystore and returns a Cipher ready to
      * decrypt data with the key.
      */
     Cipher getInitializedCipherForDecryption(String keyName, byte[] initializationVector) throws CryptoException;
@@ -28,7 +51,39 @@ interface CryptographyManager {
     String decryptData(byte[] ciphertext, Cipher cipher) throws CryptoException;
 
     /**
-     * Removes a secure key with the given name from the Android keystore
+     * Decrypts data previously encrypted with [encryptData] to raw bytes, using
+     * a Cipher set up by [getInitializedCipherForDecryption].
+     */
+    byte[] decryptDataBytes(byte[] ciphertext, Cipher cipher) throws CryptoException;
+
+    /**
+     * Returns whether a secure key with the given name exists in the
+     * keystore, answered from the cached alias index where possible.
+     */
+    boolean hasKey(String keyName) throws CryptoException;
+
+    /**
+     * Returns whether the key with the given name can only be used through a
+     * Cipher authenticated by the prompt, one operation at a time.
+     */
+    boolean isPerOperationKey(String keyName) throws CryptoException;
+
+    /**
+     * Returns whether the key with the given name stays usable for longer than
+     * keys locked after use do, as keys locked with the device do. Keys which
+     * never need authentication, such as those of SoftwareKeyStoreBackend,
+     * aren't locked with the device.
+     */
+    boolean isLockedWithDevice(String keyName) throws CryptoException;
+
+    /**
+     * Removes a secure key with the given name from the keystore
      */
     void removeKey(String keyName) throws CryptoException;
+
+    /**
+     * Removes those of the secure keys with the given names which exist from
+     * the keystore, in one pass.
+     */
+    void removeKeys(String[] keyNames) throws CryptoException;
 }
@@ -1,115 +1,95 @@
 package com.tokenized.cordova.system_unlock;
 
-import android.os.Build;
-import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyPermanentlyInvalidatedException;
-import android.security.keystore.KeyProperties;
 import android.util.Log;
 
 import java.nio.charset.StandardCharsets;
-import java.security.KeyStore;
-import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 
 import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 
 class CryptographyManagerImpl implements CryptographyManager {
     private static final String TAG = "CryptographyManagerImpl";
 
-    private static final int KEY_SIZE = 256;
-    private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
-    private static final String ENCRYPTION_PADDING = "NoPadding"; // KeyProperties.ENCRYPTION_PADDING_NONE
-    private static final String ENCRYPTION_ALGORITHM = "AES"; // KeyProperties.KEY_ALGORITHM_AES
-    private static final String KEY_ALGORITHM_AES = "AES"; // KeyProperties.KEY_ALGORITHM_AES
-    private static final String ENCRYPTION_BLOCK_MODE = "GCM"; // KeyProperties.BLOCK_MODE_GCM
+    // Alias of the throwaway key checking new keys will be usable
+    private static final String PROBE_KEY_NAME = "__system_unlock_probe";
 
-    private Cipher getCipher() throws NoSuchPaddingException, NoSuchAlgorithmException {
-        String transformation = ENCRYPTION_ALGORITHM + "/" + ENCRYPTION_BLOCK_MODE + "/" + ENCRYPTION_PADDING;
-        return Cipher.getInstance(transformation);
-    }
+    private static CryptographyManagerImpl sInstance = null;
 
-    private SecretKey createSecretKey(PromptInfo promptInfo) throws CryptoException {
-        try {
-            String keyName = promptInfo.getSecretName();
+    private final KeyStoreBackend backend;
 
-            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
-            keyStore.load(null); // Keystore must be loaded before it can be accessed
+    CryptographyManagerImpl(KeyStoreBackend backend) {
+        this.backend = backend;
+    }
 
-            try {
-                if (keyStore.containsAlias(keyName)) {
-                    keyStore.deleteEntry(keyName);
-                }
-            } catch (Exception e) {
-                Log.d(TAG, "createSecretKey failed to delete existing entry", e);
-            }
+    /**
+     * Returns the instance shared by the plugin and BiometricActivity, backed
+     * by the Android keystore unless another backend was set up first.
+     */
+    static synchronized CryptographyManagerImpl getInstance() {
+        if (sInstance == null) {
+            sInstance = new CryptographyManagerImpl(new AndroidKeyStoreBackend());
+        }
+        return sInstance;
+    }
 
-            KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(
-                keyName,
-                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT
-            )
-                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
-                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
-                .setKeySize(KEY_SIZE)
-                .setUserAuthenticationRequired(true)
-                .setInvalidatedByBiometricEnrollment(
-                    promptInfo.getScope() == SecretScope.ONE_BIOMETRIC);
-
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
-                if (promptInfo.getLockBehavior() == LockBehavior.LOCK_WITH_DEVICE) {
-                    builder.setUserAuthenticationValidityDurationSeconds(
-                        promptInfo.getAndroidAutoLockTimeSeconds());
-                } else {
-                    builder.setUserAuthenticationValidityDurationSeconds(5);
-                }
-            } else {
-                switch (promptInfo.getLockBehavior()) {
-                    case LOCK_WITH_DEVICE:
-                        builder.setUserAuthenticationParameters(
-                            promptInfo.getAndroidAutoLockTimeSeconds(),
-                            KeyProperties.AUTH_BIOMETRIC_STRONG
-                                | KeyProperties.AUTH_DEVICE_CREDENTIAL
-                        );
-                        break;
-                    case LOCK_AFTER_USE:
-                        builder.setUserAuthenticationParameters(
-                            5,
-                            KeyProperties.AUTH_BIOMETRIC_STRONG
-                                | KeyProperties.AUTH_DEVICE_CREDENTIAL
-                        );
-                        break;
-                    case LOCK_AFTER_USE_BIOMETRIC_ONLY:
-                        builder.setUserAuthenticationParameters(
-                            5,
-                            KeyProperties.AUTH_BIOMETRIC_STRONG
-                        );
-                        break;
-                }
-            }
+    /**
+     * Replaces the shared instance with one using the given backend.
+     */
+    static synchronized void setBackend(KeyStoreBackend backend) {
+        Log.d(TAG, "Using " + backend.getClass().getSimpleName());
+        sInstance = new CryptographyManagerImpl(backend);
+    }
 
-            KeyGenerator keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
-            keyGenerator.init(builder.build());
+    KeyStoreBackend getBackend() {
+        return backend;
+    }
 
-            return keyGenerator.generateKey();
+    private SecretKey createSecretKey(String keyName, PromptInfo promptInfo) throws CryptoException {
+        try {
+            long start = PluginMetrics.start();
+            SecretKey secretKey = backend.createKey(keyName, promptInfo);
+            PluginMetrics.record(PluginMetrics.Phase.KEY_GENERATION, start);
+            return secretKey;
         } catch (Exception e) {
-            Log.d(TAG, "createSecretKey " + promptInfo.getSecretName() + " error", e);
+            Log.d(TAG, "createSecretKey " + keyName + " error", e);
             throw new CryptoException(e.getMessage(), e);
         }
     }
 
     @Override
     public Cipher getInitializedCipherForEncryption(PromptInfo promptInfo) throws CryptoException {
+        return getInitializedCiphersForEncryption(new String[] { promptInfo.getSecretName() }, promptInfo)[0];
+    }
+
+    @Override
+    public Cipher[] getInitializedCiphersForEncryption(String[] keyNames, PromptInfo promptInfo) throws CryptoException {
+        String keyName = null;
         try {
-            Cipher cipher = getCipher();
-            SecretKey secretKey = createSecretKey(promptInfo);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            return cipher;
+            // A single key only risks the secret being replaced anyway, so
+            // the extra key generation is saved on the common path
+            if (keyNames.length > 1 && replacesKeys(keyNames)) {
+                keyName = PROBE_KEY_NAME;
+                probeKeyCreation(promptInfo);
+            }
+            Cipher[] ciphers = new Cipher[keyNames.length];
+            for (int i = 0; i < keyNames.length; i++) {
+                keyName = keyNames[i];
+                Cipher cipher = backend.acquireCipher();
+                SecretKey secretKey = createSecretKey(keyName, promptInfo);
+                long start = PluginMetrics.start();
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+                PluginMetrics.record(PluginMetrics.Phase.CIPHER_INIT, start);
+                ciphers[i] = cipher;
+            }
+            return ciphers;
         } catch (CryptoException e) {
             if (e.getCause() instanceof KeyPermanentlyInvalidatedException
                     || e.getCause() instanceof UnrecoverableKeyException) {
+                backend.onKeyInvalidated(keyName);
+                SecretCache.invalidate(keyName);
                 throw new KeyInvalidatedException();
             }
             throw e;
@@ -118,12 +98,71 @@ class CryptographyManagerImpl implements CryptographyManager {
         }
     }
 
+    private boolean replacesKeys(String[] keyNames) throws Exception {
+        for (String keyName : keyNames) {
+            if (backend.containsKey(keyName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a throwaway key with the options given and initializes a Cipher
+     * with it, which fails the way the new keys would if the user has yet to
+     * authenticate, but before any existing key is replaced.
+     */
+    private void probeKeyCreation(PromptInfo promptInfo) throws Exception {
+        try {
+            SecretKey secretKey = createSecretKey(PROBE_KEY_NAME, promptInfo);
+            // Initialized but never used, so not released to the pool
+            backend.acquireCipher().init(Cipher.ENCRYPT_MODE, secretKey);
+        } finally {
+            try {
+                backend.deleteKey(PROBE_KEY_NAME);
+            } catch (Exception e) {
+                Log.w(TAG, "Can't delete " + PROBE_KEY_NAME, e);
+            }
+        }
+    }
+
+    @Override
+    public Cipher getInitializedCipherForEncryption(String keyName, PromptInfo promptInfo) throws CryptoException {
+        try {
+            SecretKey secretKey = backend.getKey(keyName);
+            if (secretKey == null) {
+                secretKey = createSecretKey(keyName, promptInfo);
+            }
+            Cipher cipher = backend.acquireCipher();
+            long start = PluginMetrics.start();
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+            PluginMetrics.record(PluginMetrics.Phase.CIPHER_INIT, start);
+            return cipher;
+        } catch (CryptoException e) {
+            throw e;
+        } catch (UnrecoverableKeyException | KeyPermanentlyInvalidatedException e) {
+            Log.d(TAG, "getInitializedCipherForEncryption: invalidated key " + keyName, e);
+            backend.onKeyInvalidated(keyName);
+            throw new KeyInvalidatedException();
+        } catch (Exception e) {
+            throw new CryptoException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public EncryptedData encryptData(String plaintext, Cipher cipher) throws CryptoException {
+        return encryptData(plaintext.getBytes(StandardCharsets.UTF_8), cipher);
+    }
+
+    @Override
+    public EncryptedData encryptData(byte[] plaintext, Cipher cipher) throws CryptoException {
         try {
-            byte[] ciphertext = cipher.doFinal(
-                plaintext.getBytes(StandardCharsets.UTF_8));
-            return new EncryptedData(ciphertext, cipher.getIV());
+            long start = PluginMetrics.start();
+            byte[] ciphertext = cipher.doFinal(plaintext);
+            PluginMetrics.record(PluginMetrics.Phase.ENCRYPT, start);
+            EncryptedData encryptedData = new EncryptedData(ciphertext, cipher.getIV());
+            backend.releaseCipher(cipher);
+            return encryptedData;
         } catch (Exception e) {
             throw new CryptoException(e.getMessage(), e);
         }
@@ -132,20 +171,22 @@ class CryptographyManagerImpl implements CryptographyManager {
     @Override
     public Cipher getInitializedCipherForDecryption(String keyName, byte[] initializationVector) throws CryptoException {
         try {
-            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
-            keyStore.load(null);
-            SecretKey secretKey = (SecretKey)keyStore.getKey(keyName, null);
+            SecretKey secretKey = backend.getKey(keyName);
             if (secretKey == null) {
                 throw new CryptoException(PluginError.BIOMETRIC_NO_SECRET_FOUND);
             }
 
-            Cipher cipher = getCipher();
+            Cipher cipher = backend.acquireCipher();
+            long start = PluginMetrics.start();
             cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(128, initializationVector));
+            PluginMetrics.record(PluginMetrics.Phase.CIPHER_INIT, start);
             return cipher;
         } catch (CryptoException e) {
             throw e;
         } catch (UnrecoverableKeyException | KeyPermanentlyInvalidatedException e) {
             Log.d(TAG, "getInitializedCipherForDecryption: invalidated key " + keyName, e);
+            backend.onKeyInvalidated(keyName);
+            SecretCache.invalidate(keyName);
             throw new KeyInvalidatedException();
         } catch (Exception e) {
             throw new CryptoException(e.getMessage(), e);
@@ -154,9 +195,46 @@ class CryptographyManagerImpl implements CryptographyManager {
 
     @Override
     public String decryptData(byte[] ciphertext, Cipher cipher) throws CryptoException {
+        return new String(decryptDataBytes(ciphertext, cipher), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] decryptDataBytes(byte[] ciphertext, Cipher cipher) throws CryptoException {
         try {
+            long start = PluginMetrics.start();
             byte[] plaintext = cipher.doFinal(ciphertext);
-            return new String(plaintext, StandardCharsets.UTF_8);
+            PluginMetrics.record(PluginMetrics.Phase.DECRYPT, start);
+            backend.releaseCipher(cipher);
+            return plaintext;
+        } catch (Exception e) {
+            throw new CryptoException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean hasKey(String keyName) throws CryptoException {
+        try {
+            return backend.containsKey(keyName);
+        } catch (Exception e) {
+            throw new CryptoException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean isPerOperationKey(String keyName) throws CryptoException {
+        return getAuthenticationValiditySeconds(keyName) == 0;
+    }
+
+    @Override
+    public boolean isLockedWithDevice(String keyName) throws CryptoException {
+        int validitySeconds = getAuthenticationValiditySeconds(keyName);
+        return validitySeconds > AndroidKeyStoreBackend.LOCK_AFTER_USE_VALIDITY_SECONDS
+            && validitySeconds != Integer.MAX_VALUE;
+    }
+
+    private int getAuthenticationValiditySeconds(String keyName) throws CryptoException {
+        try {
+            return backend.getAuthenticationValiditySeconds(keyName);
         } catch (Exception e) {
             throw new CryptoException(e.getMessage(), e);
         }
@@ -165,9 +243,16 @@ class CryptographyManagerImpl implements CryptographyManager {
     @Override
     public void removeKey(String keyName) throws CryptoException {
         try {
-            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
-            keyStore.load(null);
-            keyStore.deleteEntry(keyName);
+            backend.deleteKey(keyName);
+        } catch (Exception e) {
+            throw new CryptoException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void removeKeys(String[] keyNames) throws CryptoException {
+        try {
+            backend.deleteKeys(keyNames);
         } catch (Exception e) {
             throw new CryptoException(e.getMessage(), e);
         }
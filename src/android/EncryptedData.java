@@ -1,14 +1,10 @@
 package com.tokenized.cordova.system_unlock;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
-import android.util.Base64;
 
-class EncryptedData {
-    private static final String DEFAULT_CIPHERTEXT_KEY_NAME = "__biometric-aio-ciphertext";
-    private static final String DEFAULT_IV_KEY_NAME = "__biometric-aio-iv";
+import java.io.IOException;
 
+class EncryptedData {
     private byte[] ciphertext;
     private byte[] initializationVector;
 
@@ -18,52 +14,109 @@ class EncryptedData {
     }
 
     static byte[] loadInitializationVector(Context context) throws CryptoException {
-        return load(DEFAULT_IV_KEY_NAME, context);
+        return loadInitializationVector(null, context);
     }
     static byte[] loadInitializationVector(String keyName, Context context) throws CryptoException {
-        if (keyName == null || PromptInfo.DEFAULT_SECRET_NAME.equals(keyName)) {
-            return loadInitializationVector(context);
+        long start = PluginMetrics.start();
+        try {
+            return found(getStore(context).getInitializationVector(storeName(keyName)));
+        } catch (IOException e) {
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.STORAGE_READ, start);
+        }
+    }
+
+    static boolean exists(String keyName, Context context) throws CryptoException {
+        try {
+            return getStore(context).contains(storeName(keyName));
+        } catch (IOException e) {
+            throw new CryptoException(e.getMessage(), e);
         }
-        return load("SystemLock_iv_" + keyName, context);
     }
 
     static byte[] loadCiphertext(Context context) throws CryptoException {
-        return load(DEFAULT_CIPHERTEXT_KEY_NAME, context);
+        return loadCiphertext(null, context);
     }
     static byte[] loadCiphertext(String keyName, Context context) throws CryptoException {
-        if (keyName == null || PromptInfo.DEFAULT_SECRET_NAME.equals(keyName)) {
-            return loadCiphertext(context);
+        long start = PluginMetrics.start();
+        try {
+            return found(getStore(context).getCiphertext(storeName(keyName)));
+        } catch (IOException e) {
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.STORAGE_READ, start);
         }
-        return load("SystemLock_enc_" + keyName, context);
     }
 
-    void save(Context context) {
-        save(DEFAULT_IV_KEY_NAME, initializationVector, context);
-        save(DEFAULT_CIPHERTEXT_KEY_NAME, ciphertext, context);
+    void save(Context context) throws CryptoException {
+        save(null, context);
+    }
+    void save(String keyName, Context context) throws CryptoException {
+        long start = PluginMetrics.start();
+        try {
+            getStore(context).put(storeName(keyName), initializationVector, ciphertext);
+        } catch (IOException e) {
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.STORAGE_WRITE, start);
+        }
     }
-    void save(String keyName, Context context) {
-        if (keyName == null || PromptInfo.DEFAULT_SECRET_NAME.equals(keyName)) {
-            save(context);
-            return;
+
+    /**
+     * Saves the encrypted data for several secrets at once, with a single
+     * write to the secret store.
+     */
+    static void saveAll(String[] keyNames, EncryptedData[] encryptedData, Context context) throws CryptoException {
+        String[] names = new String[keyNames.length];
+        byte[][] initializationVectors = new byte[keyNames.length][];
+        byte[][] ciphertexts = new byte[keyNames.length][];
+        for (int i = 0; i < keyNames.length; i++) {
+            names[i] = storeName(keyNames[i]);
+            initializationVectors[i] = encryptedData[i].initializationVector;
+            ciphertexts[i] = encryptedData[i].ciphertext;
         }
-        save("SystemLock_iv_" + keyName, initializationVector, context);
-        save("SystemLock_enc_" + keyName, ciphertext, context);
+        long start = PluginMetrics.start();
+        try {
+            getStore(context).putAll(names, initializationVectors, ciphertexts);
+        } catch (IOException e) {
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.STORAGE_WRITE, start);
+        }
+    }
+
+    /**
+     * Removes the stored data of the secrets, with a single write to the
+     * secret store.
+     */
+    static void removeAll(String[] keyNames, Context context) throws CryptoException {
+        String[] names = new String[keyNames.length];
+        for (int i = 0; i < keyNames.length; i++) {
+            names[i] = storeName(keyNames[i]);
+        }
+        long start = PluginMetrics.start();
+        try {
+            getStore(context).removeAll(names);
+        } catch (IOException e) {
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.STORAGE_WRITE, start);
+        }
+    }
+
+    private static SecretStore getStore(Context context) throws IOException {
+        return SecretStore.getInstance(context);
     }
 
-    private void save(String keyName, byte[] value, Context context) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        preferences
-            .edit()
-            .putString(keyName, Base64.encodeToString(value, Base64.DEFAULT))
-            .apply();
+    private static String storeName(String keyName) {
+        return keyName == null ? PromptInfo.DEFAULT_SECRET_NAME : keyName;
     }
 
-    private static byte[] load(String keyName, Context context) throws CryptoException {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        String res = preferences.getString(keyName, null);
-        if (res == null) {
+    private static byte[] found(byte[] value) throws CryptoException {
+        if (value == null) {
             throw new CryptoException(PluginError.BIOMETRIC_NO_SECRET_FOUND);
         }
-        return Base64.decode(res, Base64.DEFAULT);
+        return value;
     }
 }
@@ -0,0 +1,47 @@
+package com.tokenized.cordova.system_unlock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lookup tables for decoding an enum passed between JS and native code, by
+ * its value or its JSON string, so decoding doesn't scan values().
+ */
+final class EnumLookup<E extends Enum<E> & EnumLookup.Coded> {
+    interface Coded {
+        int getValue();
+
+        String getJsonString();
+    }
+
+    private final E[] byValue;
+    private final Map<String, E> byJsonString = new HashMap<>();
+
+    EnumLookup(E[] values) {
+        int maxValue = 0;
+        for (E value : values) {
+            maxValue = Math.max(maxValue, value.getValue());
+        }
+        byValue = Arrays.copyOf(values, maxValue + 1);
+        Arrays.fill(byValue, null);
+        for (E value : values) {
+            byValue[value.getValue()] = value;
+            byJsonString.put(value.getJsonString(), value);
+        }
+    }
+
+    /**
+     * Returns the constant with the given value, or null if there is none.
+     */
+    E fromValue(int value) {
+        return value >= 0 && value < byValue.length ? byValue[value] : null;
+    }
+
+    /**
+     * Returns the constant with the given JSON string, or null if there is none.
+     */
+    E fromJsonString(String jsonString) {
+        return byJsonString.get(jsonString);
+    }
+}
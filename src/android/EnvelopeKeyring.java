@@ -0,0 +1,284 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Envelope mode, where secrets are encrypted in software with data keys of
+ * their own, and the data keys are kept together in a keyring encrypted with
+ * a single keystore master key per scope and lock behavior. Unlocking any
+ * number of secrets then takes one keystore operation, to decrypt the
+ * keyring, and creating secrets needs no new keystore keys at all.
+ *
+ * The keyring is stored in the SecretStore like a secret, under a reserved
+ * name. Each envelope secret's record has a header in place of a plain
+ * initialization vector, which identifies its keyring, and its ciphertext
+ * is bound to its name so records can't be swapped.
+ */
+final class EnvelopeKeyring {
+    private static final String MASTER_KEY_PREFIX = "__system_unlock_master_";
+    private static final String KEYRING_PREFIX = "__system_unlock_keyring_";
+
+    private static final int MAGIC = 0x53554531; // "SUE1"
+    private static final int IV_SIZE = 12;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + IV_SIZE;
+    private static final int TAG_SIZE = 16;
+    private static final int DATA_KEY_SIZE = 32;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    // One lock per keyring, by keyring name
+    private static final Map<String, Object> sLocks = new HashMap<>();
+
+    private final SecretScope scope;
+    private final LockBehavior lockBehavior;
+    private final Map<String, byte[]> dataKeys;
+
+    private EnvelopeKeyring(SecretScope scope, LockBehavior lockBehavior, Map<String, byte[]> dataKeys) {
+        this.scope = scope;
+        this.lockBehavior = lockBehavior;
+        this.dataKeys = dataKeys;
+    }
+
+    /**
+     * Whether a stored initialization vector is the header of an envelope
+     * secret rather than a plain initialization vector.
+     */
+    static boolean isEnvelope(byte[] storedIv) {
+        return storedIv.length == HEADER_SIZE
+            && ByteBuffer.wrap(storedIv).getInt() == MAGIC
+            && scopeOf(storedIv) != null
+            && lockBehaviorOf(storedIv) != null;
+    }
+
+    static LockBehavior getLockBehavior(byte[] storedIv) {
+        return lockBehaviorOf(storedIv);
+    }
+
+    /**
+     * Returns the keystore key encrypting the keyring of an envelope secret.
+     */
+    static String getMasterKeyName(byte[] storedIv) {
+        return MASTER_KEY_PREFIX + suffix(scopeOf(storedIv), lockBehaviorOf(storedIv));
+    }
+
+    /**
+     * Returns the name the keyring of an envelope secret is stored under.
+     */
+    static String getKeyringName(byte[] storedIv) {
+        return KEYRING_PREFIX + suffix(scopeOf(storedIv), lockBehaviorOf(storedIv));
+    }
+
+    /**
+     * Returns the lock to hold from loading the keyring for the scope and lock
+     * behavior until it is saved again, so that writes running in parallel
+     * each start from the keyring the other saved, and don't drop each
+     * other's data keys.
+     */
+    static Object getLock(SecretScope scope, LockBehavior lockBehavior) {
+        String keyringName = KEYRING_PREFIX + suffix(scope, lockBehavior);
+        synchronized (sLocks) {
+            Object lock = sLocks.get(keyringName);
+            if (lock == null) {
+                lock = new Object();
+                sLocks.put(keyringName, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Decrypts the keyring of an envelope secret, which needs its master key
+     * to be usable.
+     */
+    static EnvelopeKeyring load(byte[] storedIv, CryptographyManager cryptographyManager, Context context) throws CryptoException {
+        return load(scopeOf(storedIv), lockBehaviorOf(storedIv), cryptographyManager, context);
+    }
+
+    /**
+     * Decrypts the keyring for the scope and lock behavior, or returns an
+     * empty one if there is none yet or no CryptographyManager is given.
+     */
+    static EnvelopeKeyring load(SecretScope scope, LockBehavior lockBehavior,
+            CryptographyManager cryptographyManager, Context context) throws CryptoException {
+        String masterKeyName = MASTER_KEY_PREFIX + suffix(scope, lockBehavior);
+        String keyringName = KEYRING_PREFIX + suffix(scope, lockBehavior);
+        if (cryptographyManager == null
+                || !EncryptedData.exists(keyringName, context)
+                || !cryptographyManager.hasKey(masterKeyName)) {
+            return new EnvelopeKeyring(scope, lockBehavior, new HashMap<>());
+        }
+        byte[] initializationVector = EncryptedData.loadInitializationVector(keyringName, context);
+        Cipher cipher = cryptographyManager
+            .getInitializedCipherForDecryption(masterKeyName, initializationVector);
+        byte[] serialized = cryptographyManager.decryptDataBytes(
+            EncryptedData.loadCiphertext(keyringName, context), cipher);
+        try {
+            return new EnvelopeKeyring(scope, lockBehavior, deserialize(serialized));
+        } finally {
+            Arrays.fill(serialized, (byte) 0);
+        }
+    }
+
+    String getMasterKeyName() {
+        return MASTER_KEY_PREFIX + suffix(scope, lockBehavior);
+    }
+
+    String getKeyringName() {
+        return KEYRING_PREFIX + suffix(scope, lockBehavior);
+    }
+
+    byte[] decrypt(String secretName, byte[] storedIv, byte[] ciphertext) throws CryptoException {
+        byte[] dataKey = dataKeys.get(secretName);
+        if (dataKey == null) {
+            throw new CryptoException(PluginError.BIOMETRIC_NO_SECRET_FOUND);
+        }
+        long start = PluginMetrics.start();
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(dataKey, "AES"),
+                new GCMParameterSpec(TAG_SIZE * 8, storedIv, HEADER_SIZE - IV_SIZE, IV_SIZE));
+            cipher.updateAAD(secretName.getBytes(StandardCharsets.UTF_8));
+            return cipher.doFinal(ciphertext);
+        } catch (Exception e) {
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.DECRYPT, start);
+        }
+    }
+
+    /**
+     * Encrypts the secret under a new data key, which replaces any previous
+     * one for the name in the keyring.
+     */
+    EncryptedData encrypt(String secretName, byte[] plaintext) throws CryptoException {
+        byte[] dataKey = new byte[DATA_KEY_SIZE];
+        sRandom.nextBytes(dataKey);
+        byte[] storedIv = ByteBuffer.allocate(HEADER_SIZE)
+            .putInt(MAGIC)
+            .put((byte) scope.getValue())
+            .put((byte) lockBehavior.getValue())
+            .array();
+        byte[] iv = new byte[IV_SIZE];
+        sRandom.nextBytes(iv);
+        System.arraycopy(iv, 0, storedIv, HEADER_SIZE - IV_SIZE, IV_SIZE);
+
+        long start = PluginMetrics.start();
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(dataKey, "AES"),
+                new GCMParameterSpec(TAG_SIZE * 8, iv));
+            cipher.updateAAD(secretName.getBytes(StandardCharsets.UTF_8));
+            EncryptedData encryptedData = new EncryptedData(cipher.doFinal(plaintext), storedIv);
+            byte[] previous = dataKeys.put(secretName, dataKey);
+            if (previous != null) {
+                Arrays.fill(previous, (byte) 0);
+            }
+            return encryptedData;
+        } catch (Exception e) {
+            Arrays.fill(dataKey, (byte) 0);
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.ENCRYPT, start);
+        }
+    }
+
+    /**
+     * Drops the data keys of secrets which are no longer stored in this
+     * keyring, because they were deleted or set again without envelope mode.
+     * Only the data keys loaded with the keyring are considered, so this must
+     * be called with the keyring's lock held since loading it.
+     */
+    void prune(Context context) throws CryptoException {
+        Iterator<Map.Entry<String, byte[]>> iterator = dataKeys.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            byte[] storedIv = EncryptedData.exists(entry.getKey(), context)
+                ? EncryptedData.loadInitializationVector(entry.getKey(), context)
+                : null;
+            if (storedIv == null || !isEnvelope(storedIv)
+                    || scopeOf(storedIv) != scope || lockBehaviorOf(storedIv) != lockBehavior) {
+                Arrays.fill(entry.getValue(), (byte) 0);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Encrypts the keyring with a Cipher set up for its master key.
+     */
+    EncryptedData seal(CryptographyManager cryptographyManager, Cipher cipher) throws CryptoException {
+        byte[] serialized = serialize();
+        try {
+            return cryptographyManager.encryptData(serialized, cipher);
+        } finally {
+            Arrays.fill(serialized, (byte) 0);
+        }
+    }
+
+    void clear() {
+        for (byte[] dataKey : dataKeys.values()) {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+        dataKeys.clear();
+    }
+
+    private byte[] serialize() {
+        int length = 4;
+        for (String secretName : dataKeys.keySet()) {
+            length += 2 + secretName.getBytes(StandardCharsets.UTF_8).length + 1 + DATA_KEY_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(dataKeys.size());
+        for (Map.Entry<String, byte[]> entry : dataKeys.entrySet()) {
+            byte[] nameBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) nameBytes.length);
+            buffer.put(nameBytes);
+            buffer.put((byte) entry.getValue().length);
+            buffer.put(entry.getValue());
+        }
+        return buffer.array();
+    }
+
+    private static Map<String, byte[]> deserialize(byte[] serialized) throws CryptoException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(serialized);
+            int count = buffer.getInt();
+            Map<String, byte[]> dataKeys = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] nameBytes = new byte[buffer.getShort() & 0xffff];
+                buffer.get(nameBytes);
+                byte[] dataKey = new byte[buffer.get() & 0xff];
+                buffer.get(dataKey);
+                dataKeys.put(new String(nameBytes, StandardCharsets.UTF_8), dataKey);
+            }
+            return dataKeys;
+        } catch (RuntimeException e) {
+            throw new CryptoException("Unrecognized keyring", e);
+        }
+    }
+
+    private static SecretScope scopeOf(byte[] storedIv) {
+        return SecretScope.fromValue(storedIv[4]);
+    }
+
+    private static LockBehavior lockBehaviorOf(byte[] storedIv) {
+        return LockBehavior.fromValue(storedIv[5]);
+    }
+
+    private static String suffix(SecretScope scope, LockBehavior lockBehavior) {
+        return scope.getJsonString() + "_" + lockBehavior.getJsonString();
+    }
+}
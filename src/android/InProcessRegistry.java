@@ -0,0 +1,44 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands objects from one component to another within the process, such as
+ * between SystemUnlock and BiometricActivity, by an ID small enough to put in
+ * an Intent, so the objects themselves are never marshalled. Objects nobody
+ * takes, for example because the activity was never created or its result
+ * never delivered, are dropped after a timeout rather than held for the life
+ * of the process.
+ */
+final class InProcessRegistry<T> {
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private final long timeoutMillis;
+    private final Map<Integer, T> entries = new ConcurrentHashMap<>();
+
+    InProcessRegistry(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Registers the object under the ID, replacing any object registered
+     * under it before.
+     */
+    void put(int id, T value) {
+        entries.put(id, value);
+        sHandler.postDelayed(() -> entries.remove(id, value), timeoutMillis);
+    }
+
+    /**
+     * Removes and returns the object registered under the ID, or null if there
+     * is none, for example because it timed out or the process was restarted
+     * since.
+     */
+    T take(int id) {
+        return entries.remove(id);
+    }
+}
@@ -0,0 +1,63 @@
+package com.tokenized.cordova.system_unlock;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Where CryptographyManagerImpl keeps its secure keys and gets Ciphers for
+ * them. The Android keystore is the backend used in production; others stand
+ * in for it where it isn't available, for example on a plain JVM.
+ */
+interface KeyStoreBackend {
+    /**
+     * Does the slow first-time setup of the backend ahead of its first use.
+     */
+    void prewarm() throws GeneralSecurityException, IOException;
+
+    boolean containsKey(String keyName) throws GeneralSecurityException, IOException;
+
+    /**
+     * Returns the key with the given name, or null if there is none.
+     */
+    SecretKey getKey(String keyName) throws GeneralSecurityException, IOException;
+
+    /**
+     * Creates a key with the given name, replacing any existing key, which
+     * requires the user to authenticate as the options specify.
+     */
+    SecretKey createKey(String keyName, PromptInfo promptInfo) throws GeneralSecurityException, IOException;
+
+    /**
+     * Returns for how long the key stays usable after the user authenticates:
+     * 0 if each use of it has to be authenticated through the prompt,
+     * Integer.MAX_VALUE if it never needs authentication, or -1 if there is no
+     * such key.
+     */
+    int getAuthenticationValiditySeconds(String keyName) throws GeneralSecurityException, IOException;
+
+    void deleteKey(String keyName) throws GeneralSecurityException, IOException;
+
+    /**
+     * Deletes those of the keys which exist, in one pass.
+     */
+    void deleteKeys(String[] keyNames) throws GeneralSecurityException, IOException;
+
+    /**
+     * Forgets anything cached about a key which turned out to be invalidated.
+     */
+    void onKeyInvalidated(String keyName);
+
+    /**
+     * Returns an uninitialized Cipher for the backend's keys.
+     */
+    Cipher acquireCipher() throws GeneralSecurityException;
+
+    /**
+     * Takes back a Cipher from [acquireCipher] once it has completed an
+     * operation.
+     */
+    void releaseCipher(Cipher cipher);
+}
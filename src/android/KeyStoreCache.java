@@ -0,0 +1,138 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide handle on the Android keystore. Loading the keystore and
+ * listing its aliases are both round trips to the keystore daemon, so the
+ * handle is loaded once and shared, and alias lookups are answered from an
+ * in-memory index that is dropped whenever it may be stale. Recently used
+ * key handles are kept in a small LRU cache keyed by alias.
+ */
+final class KeyStoreCache {
+    private static final String TAG = "KeyStoreCache";
+
+    static final String ANDROID_KEYSTORE = "AndroidKeyStore";
+
+    private static final int MAX_CACHED_KEYS = 32;
+
+    private static KeyStore sKeyStore = null;
+    private static Set<String> sAliases = null;
+    private static final Map<String, Key> sKeys =
+        new LinkedHashMap<String, Key>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Key> eldest) {
+                return size() > MAX_CACHED_KEYS;
+            }
+        };
+
+    private KeyStoreCache() {
+    }
+
+    static synchronized KeyStore getKeyStore() throws GeneralSecurityException, IOException {
+        if (sKeyStore == null) {
+            long start = PluginMetrics.start();
+            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
+            keyStore.load(null); // Keystore must be loaded before it can be accessed
+            sKeyStore = keyStore;
+            PluginMetrics.record(PluginMetrics.Phase.KEYSTORE_LOAD, start);
+        }
+        return sKeyStore;
+    }
+
+    static synchronized boolean containsAlias(String alias) throws GeneralSecurityException, IOException {
+        return getAliases().contains(alias);
+    }
+
+    /**
+     * Returns the key stored under the alias, or null if there is none. Missing
+     * aliases are answered from the index without asking the keystore.
+     */
+    static Key getKey(String alias) throws GeneralSecurityException, IOException {
+        KeyStore keyStore;
+        synchronized (KeyStoreCache.class) {
+            Key key = sKeys.get(alias);
+            if (key != null) {
+                return key;
+            }
+            if (!getAliases().contains(alias)) {
+                return null;
+            }
+            keyStore = getKeyStore();
+        }
+        long start = PluginMetrics.start();
+        Key key = keyStore.getKey(alias, null);
+        PluginMetrics.record(PluginMetrics.Phase.KEY_LOOKUP, start);
+        if (key != null) {
+            synchronized (KeyStoreCache.class) {
+                // Don't resurrect a key deleted while it was being fetched
+                if (sAliases != null && sAliases.contains(alias)) {
+                    sKeys.put(alias, key);
+                }
+            }
+        }
+        return key;
+    }
+
+    static synchronized void deleteEntry(String alias) throws GeneralSecurityException, IOException {
+        sKeys.remove(alias);
+        try {
+            getKeyStore().deleteEntry(alias);
+            if (sAliases != null) {
+                sAliases.remove(alias);
+            }
+        } catch (GeneralSecurityException e) {
+            invalidateAliases();
+            throw e;
+        }
+    }
+
+    /**
+     * Records an alias created outside this class, for example by a
+     * KeyGenerator backed by the Android keystore.
+     */
+    static synchronized void onKeyCreated(String alias, Key key) {
+        sKeys.put(alias, key);
+        if (sAliases != null) {
+            sAliases.add(alias);
+        }
+    }
+
+    /**
+     * Drops the cached handle for a key which turned out to be invalidated,
+     * along with the alias index, so both are reloaded from the keystore.
+     */
+    static synchronized void invalidateKey(String alias) {
+        sKeys.remove(alias);
+        invalidateAliases();
+    }
+
+    /**
+     * Drops the alias index so the next lookup reloads it from the keystore.
+     */
+    static synchronized void invalidateAliases() {
+        sAliases = null;
+    }
+
+    private static Set<String> getAliases() throws GeneralSecurityException, IOException {
+        if (sAliases == null) {
+            KeyStore keyStore = getKeyStore();
+            long start = PluginMetrics.start();
+            Set<String> aliases = new HashSet<>(Collections.list(keyStore.aliases()));
+            PluginMetrics.record(PluginMetrics.Phase.KEYSTORE_LOAD, start);
+            Log.d(TAG, "Loaded " + aliases.size() + " keystore aliases");
+            sAliases = aliases;
+        }
+        return sAliases;
+    }
+}
@@ -0,0 +1,85 @@
+package com.tokenized.cordova.system_unlock;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of durations which can be recorded into from any
+ * thread without locking. Bucket i counts durations of at least 2^i and less
+ * than 2^(i+1) microseconds, except that the first bucket also counts shorter
+ * durations and the last one also counts longer ones.
+ */
+final class LatencyHistogram {
+    static final int BUCKET_COUNT = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = micros == 0
+            ? 0
+            : Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Clears the histogram. Durations recorded while it's being cleared may be
+     * partly kept.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    /**
+     * Returns the counts, with percentiles estimated as the upper bound of the
+     * bucket they fall in.
+     */
+    JSONObject toJson() throws JSONException {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("count", count);
+        if (count > 0) {
+            json.put("meanMs", totalMicros.get() / 1000.0 / count);
+            json.put("maxMs", maxMicros.get() / 1000.0);
+            json.put("p50Ms", percentile(counts, count, 0.50));
+            json.put("p90Ms", percentile(counts, count, 0.90));
+            json.put("p99Ms", percentile(counts, count, 0.99));
+        }
+        JSONArray bucketCounts = new JSONArray();
+        for (long bucketCount : counts) {
+            bucketCounts.put(bucketCount);
+        }
+        json.put("buckets", bucketCounts);
+        return json;
+    }
+
+    private static double percentile(long[] counts, long count, double fraction) {
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (1L << (i + 1)) / 1000.0;
+            }
+        }
+        return (1L << counts.length) / 1000.0;
+    }
+}
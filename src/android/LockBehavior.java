@@ -1,8 +1,6 @@
 package com.tokenized.cordova.system_unlock;
 
-import java.util.Objects;
-
-public enum LockBehavior {
+public enum LockBehavior implements EnumLookup.Coded {
     LOCK_WITH_DEVICE(1, "lockWithDevice"),
     LOCK_AFTER_USE(2, "lockAfterUse"),
     LOCK_AFTER_USE_BIOMETRIC_ONLY(3, "lockAfterUseBiometricOnly");
@@ -10,34 +8,28 @@ public enum LockBehavior {
     private int value;
     private String jsonString;
 
+    private static final EnumLookup<LockBehavior> sLookup = new EnumLookup<>(values());
+
     LockBehavior(int value, String jsonString) {
         this.value = value;
         this.jsonString = jsonString;
     }
 
+    @Override
     public int getValue() {
         return value;
     }
 
+    @Override
     public String getJsonString() {
         return jsonString;
     }
 
     public static LockBehavior fromValue(int val) {
-        for (LockBehavior scope : values()) {
-            if (scope.getValue() == val) {
-                return scope;
-            }
-        }
-        return null;
+        return sLookup.fromValue(val);
     }
 
     public static LockBehavior fromJsonString(String jsonString) {
-        for (LockBehavior scope : values()) {
-            if (Objects.equals(scope.getJsonString(), jsonString)) {
-                return scope;
-            }
-        }
-        return null;
+        return sLookup.fromJsonString(jsonString);
     }
 }
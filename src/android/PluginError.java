@@ -12,7 +12,9 @@ public enum PluginError {
     BIOMETRIC_LOCKED_OUT(-111),
     BIOMETRIC_LOCKED_OUT_PERMANENT(-112),
     BIOMETRIC_NO_SECRET_FOUND(-113),
-    BIOMETRIC_ARGS_PARSING_FAILED(-115);
+    BIOMETRIC_ARGS_PARSING_FAILED(-115),
+    BIOMETRIC_SESSION_EXPIRED(-116, "The session has expired or was ended"),
+    BIOMETRIC_AUTHENTICATION_REQUIRED(-117, "The user has to authenticate first");
 
     private int value;
     private String message;
@@ -0,0 +1,108 @@
+package com.tokenized.cordova.system_unlock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded background executor owned by the plugin, so that no plugin work
+ * runs on the Cordova bridge thread. Keeps track of how deep its queue gets
+ * so the numbers can be reported through getMetrics.
+ *
+ * Its threads live as long as the plugin rather than timing out when idle,
+ * since each keeps warm state of its own, such as the Ciphers in CipherPool
+ * and the KeyGenerator of AndroidKeyStoreBackend, which would otherwise be
+ * set up again from cold after every pause.
+ */
+class PluginExecutor {
+    static final int DEFAULT_PARALLELISM = 2;
+    static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong rejectedTaskCount = new AtomicLong();
+
+    PluginExecutor(int parallelism, int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "SystemUnlock-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        int threads = Math.max(1, parallelism);
+        this.executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(this.queueCapacity),
+            threadFactory
+        );
+    }
+
+    /**
+     * Queues the task, or returns false if the queue is full or the executor
+     * has been shut down.
+     */
+    boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedTaskCount.incrementAndGet();
+            return false;
+        }
+        int depth = executor.getQueue().size();
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+        return true;
+    }
+
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    long getRejectedTaskCount() {
+        return rejectedTaskCount.get();
+    }
+
+    JSONObject getMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("parallelism", executor.getMaximumPoolSize());
+        metrics.put("queueCapacity", queueCapacity);
+        metrics.put("queueDepth", getQueueDepth());
+        metrics.put("maxQueueDepth", getMaxQueueDepth());
+        metrics.put("activeCount", getActiveCount());
+        metrics.put("completedTaskCount", getCompletedTaskCount());
+        metrics.put("rejectedTaskCount", getRejectedTaskCount());
+        return metrics;
+    }
+
+    /**
+     * Stops the executor, and returns the tasks which were still queued and
+     * will now never run, so their callers can be told.
+     */
+    List<Runnable> shutdown() {
+        return executor.shutdownNow();
+    }
+}
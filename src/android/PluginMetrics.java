@@ -0,0 +1,83 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Process-wide latency histograms for each phase of a plugin call, reported
+ * through getMetrics.
+ */
+final class PluginMetrics {
+    enum Phase {
+        // From execute until the result is sent back
+        CALL("call"),
+        // Loading the keystore or its alias index
+        KEYSTORE_LOAD("keyStoreLoad"),
+        // Fetching a key from the keystore
+        KEY_LOOKUP("keyLookup"),
+        KEY_GENERATION("keyGeneration"),
+        CIPHER_INIT("cipherInit"),
+        ENCRYPT("encrypt"),
+        DECRYPT("decrypt"),
+        STORAGE_READ("storageRead"),
+        STORAGE_WRITE("storageWrite"),
+        // From starting BiometricActivity until it's created
+        ACTIVITY_LAUNCH("activityLaunch"),
+        // From a prompt host taking on the call until it shows the prompt,
+        // including any wait for other prompts to finish
+        PROMPT("prompt"),
+        // From showing the prompt until the user is done with it, kept apart
+        // as it's the user's time rather than the plugin's
+        USER_RESPONSE("userResponse"),
+        // From BiometricActivity finishing until SystemUnlock gets its result
+        RESULT_DELIVERY("resultDelivery"),
+        // Spent by the thread with a result handing it to the Cordova bridge,
+        // which queues it for the WebView, so not including the JS side
+        BRIDGE_HANDOFF("bridgeHandoff");
+
+        private final String jsonString;
+
+        Phase(String jsonString) {
+            this.jsonString = jsonString;
+        }
+    }
+
+    private static final LatencyHistogram[] sHistograms =
+        new LatencyHistogram[Phase.values().length];
+
+    static {
+        for (int i = 0; i < sHistograms.length; i++) {
+            sHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private PluginMetrics() {
+    }
+
+    /**
+     * Returns the timestamp to pass to [record] once the phase is over.
+     */
+    static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    static void record(Phase phase, long start) {
+        sHistograms[phase.ordinal()].record(SystemClock.elapsedRealtimeNanos() - start);
+    }
+
+    static JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            json.put(phase.jsonString, sHistograms[phase.ordinal()].toJson());
+        }
+        return json;
+    }
+
+    static void reset() {
+        for (LatencyHistogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.biometric.BiometricPrompt;
+import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
+import androidx.fragment.app.FragmentManager;
+import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.ViewModelProvider;
+
+import javax.crypto.Cipher;
+
+/**
+ * Headless fragment which hosts the prompt in the Cordova activity itself, as
+ * a lighter alternative to starting BiometricActivity. The fragment keeps one
+ * BiometricPrompt, so showing a prompt needs neither a new activity nor a new
+ * prompt. The fragment and its prompt are recreated with the activity, while
+ * the callback of the prompt showing is kept in a ViewModel, which survives
+ * configuration changes, so the outcome still reaches it.
+ *
+ * All methods must be called on the main thread.
+ */
+public class PromptFragment extends Fragment {
+    private static final String TAG = "PromptFragment";
+    private static final String FRAGMENT_TAG = "com.tokenized.cordova.system_unlock.PromptFragment";
+
+    // How long to wait for the error of a prompt the fragment cancelled itself
+    private static final long CANCEL_TIMEOUT_MILLIS = 1000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mCancelTimeout = this::finishCancelling;
+    private BiometricPrompt mBiometricPrompt;
+    private PromptViewModel mViewModel;
+
+    /**
+     * Holds the callback of the prompt showing across configuration changes.
+     */
+    public static class PromptViewModel extends ViewModel {
+        private SecretPromptCallback callback;
+        // Whether the fragment cancelled the prompt showing, and waits for
+        // the resulting error before failing the callback
+        private boolean cancelling;
+
+        @Override
+        protected void onCleared() {
+            // Only reached when the activity goes away for good
+            SecretPromptCallback callback = this.callback;
+            this.callback = null;
+            if (callback != null) {
+                callback.onError(PluginError.BIOMETRIC_DISMISSED.getValue(),
+                    PluginError.BIOMETRIC_DISMISSED.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the fragment attached to the activity, attaching one first if
+     * there is none yet.
+     */
+    static PromptFragment attach(FragmentActivity activity) {
+        FragmentManager fragmentManager = activity.getSupportFragmentManager();
+        PromptFragment fragment = (PromptFragment) fragmentManager.findFragmentByTag(FRAGMENT_TAG);
+        if (fragment == null) {
+            fragment = new PromptFragment();
+            fragmentManager.beginTransaction()
+                .add(fragment, FRAGMENT_TAG)
+                .commitNowAllowingStateLoss();
+            Log.d(TAG, "Attached prompt fragment");
+        }
+        return fragment;
+    }
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mViewModel = new ViewModelProvider(this).get(PromptViewModel.class);
+        // Reconnects to a prompt still showing from before a recreation
+        mBiometricPrompt = new BiometricPrompt(this, mHandler::post, mAuthenticationCallback);
+    }
+
+    /**
+     * Shows the prompt, which authenticates the Cipher if one is given. The
+     * callback is told the outcome, unless a prompt is already showing, in
+     * which case it gets an error straight away.
+     */
+    void authenticate(PromptInfo promptInfo, @Nullable Cipher cipher, SecretPromptCallback callback) {
+        if (mViewModel.callback != null) {
+            callback.onError(PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(),
+                "Another prompt is already showing");
+            return;
+        }
+        mViewModel.callback = callback;
+        callback.onPromptShown();
+        if (cipher != null) {
+            mBiometricPrompt.authenticate(promptInfo.createBiometricPromptInfo(),
+                new BiometricPrompt.CryptoObject(cipher));
+        } else {
+            mBiometricPrompt.authenticate(promptInfo.createBiometricPromptInfo());
+        }
+    }
+
+    /**
+     * Passes each outcome on to the callback of the prompt showing, which is
+     * released first so the next prompt can be shown from the callback.
+     */
+    private final BiometricPrompt.AuthenticationCallback mAuthenticationCallback =
+        new BiometricPrompt.AuthenticationCallback() {
+            @Override
+            public void onAuthenticationError(int errorCode, @NonNull CharSequence errString) {
+                if (mViewModel.cancelling) {
+                    // Caused by cancelling a failed attempt, so not for the
+                    // next prompt to receive
+                    finishCancelling();
+                    return;
+                }
+                SecretPromptCallback callback = takeCallback();
+                if (callback != null) {
+                    callback.onAuthenticationError(errorCode, errString);
+                }
+            }
+
+            @Override
+            public void onAuthenticationSucceeded(@NonNull BiometricPrompt.AuthenticationResult result) {
+                if (mViewModel.cancelling) {
+                    return;
+                }
+                SecretPromptCallback callback = takeCallback();
+                if (callback != null) {
+                    callback.onAuthenticationSucceeded(result);
+                }
+            }
+
+            @Override
+            public void onAuthenticationFailed() {
+                if (mViewModel.callback == null || mViewModel.cancelling) {
+                    return;
+                }
+                // Fail the same way BiometricActivity does, but only once the
+                // cancellation is through, so its error can't reach the next
+                // prompt shown from the callback
+                mViewModel.cancelling = true;
+                mBiometricPrompt.cancelAuthentication();
+                mHandler.postDelayed(mCancelTimeout, CANCEL_TIMEOUT_MILLIS);
+            }
+        };
+
+    /**
+     * Fails the callback of the prompt the fragment cancelled, once its error
+     * has arrived or the wait for it timed out.
+     */
+    private void finishCancelling() {
+        if (!mViewModel.cancelling) {
+            return;
+        }
+        mViewModel.cancelling = false;
+        mHandler.removeCallbacks(mCancelTimeout);
+        SecretPromptCallback callback = takeCallback();
+        if (callback != null) {
+            callback.onAuthenticationFailed();
+        }
+    }
+
+    private SecretPromptCallback takeCallback() {
+        SecretPromptCallback callback = mViewModel.callback;
+        mViewModel.callback = null;
+        return callback;
+    }
+}
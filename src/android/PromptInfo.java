@@ -1,19 +1,38 @@
 package com.tokenized.cordova.system_unlock;
 
-import android.os.Bundle;
+import android.os.Build;
+
+import androidx.biometric.BiometricManager;
+import androidx.biometric.BiometricPrompt;
 
 import org.json.JSONArray;
 
-class PromptInfo {
-    private static final String BIOMETRIC_ACTIVITY_TYPE = "biometricActivityType";
+/**
+ * The options of a call, decoded once from its arguments. Immutable, so it can
+ * be handed as is to whichever component carries out the call.
+ */
+final class PromptInfo {
     private static final String SECRET_NAME = "secretName";
+    private static final String SECRET_NAMES = "secretNames";
+    private static final String PREFIX = "prefix";
     private static final String SECRET = "secret";
+    private static final String SECRETS = "secrets";
+    private static final String SECRET_BYTES = "secretBytes";
+    private static final String BINARY = "binary";
     private static final String SCOPE = "scope";
     private static final String LOCK_BEHAVIOR = "lockBehavior";
     private static final String ANDROID_AUTO_LOCK_TIME = "androidAutoLockTimeSeconds";
+    private static final String ANDROID_PER_OPERATION_AUTH = "androidPerOperationAuth";
+    private static final String ANDROID_ENVELOPE = "androidEnvelope";
     private static final String NON_INTERACTIVE = "interactionNotAllowed";
     private static final String CONFIRMATION_REQUIRED = "confirmationRequired";
+    private static final String SKIP_AUTHENTICATION_CHECK = "skipAuthenticationCheck";
     private static final String BATCH = "batch";
+    private static final String CHUNKED = "chunked";
+    private static final String OFFSET = "offset";
+    private static final String LENGTH = "length";
+    private static final String SESSION_TOKEN = "sessionToken";
+    private static final String SESSION_DURATION = "sessionDurationSeconds";
     private static final String TITLE = "title";
     private static final String SUBTITLE = "subtitle";
     private static final String DESCRIPTION = "description";
@@ -21,79 +40,252 @@ class PromptInfo {
 
     static final String DEFAULT_SECRET_NAME = "__aio_secret_key";
 
-    static final String SECRET_EXTRA = "secret";
+    private final BiometricActivityType type;
+    private final String secretName;
+    private final String[] secretNames;
+    private final String prefix;
+    private final String secret;
+    private final String[] secrets;
+    private final byte[] secretBytes;
+    private final SecretScope scope;
+    private final LockBehavior lockBehavior;
+    private final int androidAutoLockTimeSeconds;
+    private final boolean androidPerOperationAuth;
+    private final boolean androidEnvelope;
+    private final boolean interactionNotAllowed;
+    private final boolean confirmationRequired;
+    private final boolean skipAuthenticationCheck;
+    private final ActionBatchControl batch;
+    private final boolean binary;
+    private final boolean chunked;
+    private final int offset;
+    private final int length;
+    private final String sessionToken;
+    private final int sessionDurationSeconds;
+    private final String title;
+    private final String subtitle;
+    private final String description;
+    private final String cancelButtonTitle;
 
-    private Bundle bundle = new Bundle();
+    private PromptInfo(Builder builder) {
+        type = builder.type;
+        secretName = builder.secretName;
+        secretNames = builder.secretNames;
+        prefix = builder.prefix;
+        secret = builder.secret;
+        secrets = builder.secrets;
+        secretBytes = builder.secretBytes;
+        scope = builder.scope;
+        lockBehavior = builder.lockBehavior;
+        androidAutoLockTimeSeconds = builder.androidAutoLockTimeSeconds;
+        androidPerOperationAuth = builder.androidPerOperationAuth;
+        androidEnvelope = builder.androidEnvelope;
+        interactionNotAllowed = builder.interactionNotAllowed;
+        confirmationRequired = builder.confirmationRequired;
+        skipAuthenticationCheck = builder.skipAuthenticationCheck;
+        batch = builder.batch;
+        binary = builder.binary;
+        chunked = builder.chunked;
+        offset = builder.offset;
+        length = builder.length;
+        sessionToken = builder.sessionToken;
+        sessionDurationSeconds = builder.sessionDurationSeconds;
+        title = builder.title;
+        subtitle = builder.subtitle;
+        description = builder.description;
+        cancelButtonTitle = builder.cancelButtonTitle;
+    }
 
     BiometricActivityType getType() {
-        return BiometricActivityType.fromValue(bundle.getInt(BIOMETRIC_ACTIVITY_TYPE));
+        return type;
+    }
+
+    String getSecretName() {
+        return secretName;
     }
 
-    Bundle getBundle() {
-        return bundle;
+    String[] getSecretNames() {
+        return secretNames;
     }
 
-    String getSecretName() {
-        return bundle.getString(SECRET_NAME);
+    /**
+     * The prefix of the names of the secrets to list, if any.
+     */
+    String getPrefix() {
+        return prefix;
     }
 
     String getSecret() {
-        return bundle.getString(SECRET);
+        return secret;
+    }
+
+    /**
+     * The secret to set, when it was passed as binary data rather than a
+     * string.
+     */
+    byte[] getSecretBytes() {
+        return secretBytes;
+    }
+
+    /**
+     * The secrets to set, in the same order as [getSecretNames].
+     */
+    String[] getSecrets() {
+        return secrets;
     }
 
     SecretScope getScope() {
-        return SecretScope.fromValue(bundle.getInt(SCOPE));
+        return scope;
     }
 
     LockBehavior getLockBehavior() {
-        return LockBehavior.fromValue(bundle.getInt(LOCK_BEHAVIOR));
+        return lockBehavior;
     }
 
     int getAndroidAutoLockTimeSeconds() {
-        return bundle.getInt(ANDROID_AUTO_LOCK_TIME);
+        return androidAutoLockTimeSeconds;
+    }
+
+    /**
+     * Whether a secret being set gets a key which needs the user to
+     * authenticate each use of it, rather than for a few seconds after
+     * authenticating. Only single secrets locked after use can have one,
+     * since a prompt can authenticate only one operation.
+     */
+    boolean usesPerOperationKeys() {
+        return androidPerOperationAuth
+            && type == BiometricActivityType.SET_SECRET
+            && lockBehavior != LockBehavior.LOCK_WITH_DEVICE;
+    }
+
+    /**
+     * Whether secrets being set are stored in envelope mode, under data keys
+     * kept in a keyring rather than under keystore keys of their own. Chunked
+     * secrets and per-operation keys are stored without it.
+     */
+    boolean usesEnvelope() {
+        return androidEnvelope
+            && (type == BiometricActivityType.SET_SECRET || type == BiometricActivityType.SET_SECRETS)
+            && !chunked
+            && !usesPerOperationKeys();
     }
 
     boolean getInteractionNotAllowed() {
-        return bundle.getBoolean(NON_INTERACTIVE);
+        return interactionNotAllowed;
     }
 
     boolean getConfirmationRequired() {
-        return bundle.getBoolean(CONFIRMATION_REQUIRED);
+        return confirmationRequired;
+    }
+
+    /**
+     * Whether checking that the user can authenticate may be skipped, for
+     * calls which won't prompt.
+     */
+    boolean getSkipAuthenticationCheck() {
+        return skipAuthenticationCheck;
     }
 
     ActionBatchControl getBatch() {
-        return ActionBatchControl.fromValue(bundle.getInt(BATCH));
+        return batch;
+    }
+
+    boolean getBinary() {
+        return binary;
+    }
+
+    boolean getChunked() {
+        return chunked;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Whether only a byte range of the secret was asked for.
+     */
+    boolean isRanged() {
+        return offset > 0 || length >= 0;
+    }
+
+    /**
+     * The token of the session the call belongs to, if any.
+     */
+    String getSessionToken() {
+        return sessionToken;
+    }
+
+    int getSessionDurationSeconds() {
+        return sessionDurationSeconds;
     }
 
     String getTitle() {
-        return bundle.getString(TITLE);
+        return title;
     }
 
     String getSubtitle() {
-        return bundle.getString(SUBTITLE);
+        return subtitle;
     }
 
     String getDescription() {
-        return bundle.getString(DESCRIPTION);
+        return description;
     }
 
     String getCancelButtonTitle() {
-        return bundle.getString(CANCEL_BUTTON_TITLE);
+        return cancelButtonTitle;
+    }
+
+    BiometricPrompt.PromptInfo createBiometricPromptInfo() {
+        BiometricPrompt.PromptInfo.Builder builder = new BiometricPrompt.PromptInfo.Builder()
+            .setTitle(getTitle())
+            .setSubtitle(getSubtitle())
+            .setDescription(getDescription())
+            .setConfirmationRequired(getConfirmationRequired());
+
+        if (getLockBehavior() == LockBehavior.LOCK_AFTER_USE_BIOMETRIC_ONLY
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            builder.setAllowedAuthenticators(BiometricManager.Authenticators.BIOMETRIC_STRONG);
+            builder.setNegativeButtonText(getCancelButtonTitle());
+        } else {
+            builder.setAllowedAuthenticators(
+                BiometricManager.Authenticators.BIOMETRIC_STRONG
+                    | BiometricManager.Authenticators.DEVICE_CREDENTIAL
+            );
+        }
+
+        return builder.build();
     }
 
     public static final class Builder {
         private String defaultTitle = "App unlock";
 
-        private Bundle bundle;
         private BiometricActivityType type = null;
         private String secretName = DEFAULT_SECRET_NAME;
+        private String[] secretNames = null;
+        private String prefix = null;
         private String secret = null;
+        private String[] secrets = null;
+        private byte[] secretBytes = null;
         private SecretScope scope = SecretScope.ONE_PASSCODE;
         private LockBehavior lockBehavior = LockBehavior.LOCK_AFTER_USE;
         private int androidAutoLockTimeSeconds = 14 * 24 * 60 * 60;
+        private boolean androidPerOperationAuth = false;
+        private boolean androidEnvelope = false;
         private boolean interactionNotAllowed = false;
         private boolean confirmationRequired = true;
+        private boolean skipAuthenticationCheck = false;
         private ActionBatchControl batch = null;
+        private boolean binary = false;
+        private boolean chunked = false;
+        private int offset = 0;
+        private int length = -1;
+        private String sessionToken = null;
+        private int sessionDurationSeconds = 60;
         private String title = "App unlock";
         private String subtitle = null;
         private String description = null;
@@ -106,35 +298,8 @@ class PromptInfo {
             title = defaultTitle;
         }
 
-        Builder(Bundle bundle) {
-            this.bundle = bundle;
-        }
-
         public PromptInfo build() {
-            PromptInfo promptInfo = new PromptInfo();
-
-            if (this.bundle != null) {
-                promptInfo.bundle = bundle;
-                return promptInfo;
-            }
-
-            Bundle bundle = new Bundle();
-            bundle.putInt(BIOMETRIC_ACTIVITY_TYPE, this.type.getValue());
-            bundle.putString(SECRET_NAME, this.secretName);
-            bundle.putString(SECRET, this.secret);
-            bundle.putInt(SCOPE, this.scope.getValue());
-            bundle.putInt(LOCK_BEHAVIOR, this.lockBehavior.getValue());
-            bundle.putInt(ANDROID_AUTO_LOCK_TIME, this.androidAutoLockTimeSeconds);
-            bundle.putBoolean(NON_INTERACTIVE, this.interactionNotAllowed);
-            bundle.putBoolean(CONFIRMATION_REQUIRED, this.confirmationRequired);
-            bundle.putInt(BATCH, this.batch.getValue());
-            bundle.putString(SUBTITLE, this.subtitle);
-            bundle.putString(TITLE, this.title);
-            bundle.putString(DESCRIPTION, this.description);
-            bundle.putString(CANCEL_BUTTON_TITLE, this.cancelButtonTitle);
-            promptInfo.bundle = bundle;
-
-            return promptInfo;
+            return new PromptInfo(this);
         }
 
         Builder parseArgs(JSONArray jsonArgs, BiometricActivityType type) {
@@ -142,7 +307,14 @@ class PromptInfo {
 
             Args args = new Args(jsonArgs);
             secretName = args.getString(SECRET_NAME, DEFAULT_SECRET_NAME);
+            secretNames = args.getStringArray(SECRET_NAMES, null);
+            prefix = args.getString(PREFIX, null);
             secret = args.getString(SECRET, null);
+            secretBytes = args.getArrayBuffer(1, null);
+            if (type == BiometricActivityType.SET_SECRETS) {
+                secretNames = args.getStringArray(SECRETS, SECRET_NAME, null);
+                secrets = args.getStringArray(SECRETS, SECRET, null);
+            }
             scope = SecretScope.fromJsonString(
                 args.getString(SCOPE, "activeSystemLock")
             );
@@ -151,11 +323,20 @@ class PromptInfo {
             );
             androidAutoLockTimeSeconds = args.getInt(
                 ANDROID_AUTO_LOCK_TIME, 14 * 24 * 60 * 60);
+            androidPerOperationAuth = args.getBoolean(ANDROID_PER_OPERATION_AUTH, false);
+            androidEnvelope = args.getBoolean(ANDROID_ENVELOPE, false);
             interactionNotAllowed = args.getBoolean(NON_INTERACTIVE, false);
             confirmationRequired = args.getBoolean(CONFIRMATION_REQUIRED, true);
+            skipAuthenticationCheck = args.getBoolean(SKIP_AUTHENTICATION_CHECK, false);
             batch = ActionBatchControl.fromJsonString(
                 args.getString(BATCH, null)
             );
+            binary = args.getBoolean(BINARY, false);
+            chunked = args.getBoolean(CHUNKED, false);
+            offset = args.getInt(OFFSET, 0);
+            length = args.getInt(LENGTH, -1);
+            sessionToken = args.getString(SESSION_TOKEN, null);
+            sessionDurationSeconds = args.getInt(SESSION_DURATION, 60);
             title = args.getString(TITLE, defaultTitle);
             subtitle = args.getString(SUBTITLE, null);
             description = args.getString(DESCRIPTION, null);
@@ -0,0 +1,149 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Opt-in cache of decrypted secrets locked with the device, whose keys stay
+ * usable for days after the user authenticates, so that repeat reads don't
+ * go back to storage and the keystore. The cache is bounded by the total size
+ * of the secrets it holds, evicting the least recently used first, and each
+ * entry expires after a fixed time. Evicted and expired secrets are zeroed.
+ *
+ * SystemUnlock also clears the cache when the app goes to the background or
+ * the screen turns off, and secrets are dropped whenever they're set, deleted
+ * or their key is invalidated.
+ */
+final class SecretCache {
+    private static final String TAG = "SecretCache";
+
+    static final int DEFAULT_TTL_SECONDS = 60;
+
+    private static int sMaxBytes = 0;
+    private static long sTtlMillis = DEFAULT_TTL_SECONDS * 1000L;
+    private static int sBytes = 0;
+    private static long sHits = 0;
+    private static long sMisses = 0;
+    // Bumped by every invalidation, so a secret read before it isn't cached after
+    private static long sGeneration = 0;
+    private static final Map<String, Entry> sEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry {
+        final byte[] secret;
+        final long expiresAt;
+
+        Entry(byte[] secret, long expiresAt) {
+            this.secret = secret;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private SecretCache() {
+    }
+
+    /**
+     * Sets the limits of the cache. A size of 0 turns the cache off.
+     */
+    static synchronized void configure(int maxBytes, int ttlSeconds) {
+        sMaxBytes = Math.max(0, maxBytes);
+        sTtlMillis = Math.max(0, ttlSeconds) * 1000L;
+        Log.d(TAG, "Caching up to " + sMaxBytes + " bytes for " + ttlSeconds + "s");
+        trim();
+    }
+
+    static synchronized boolean isEnabled() {
+        return sMaxBytes > 0 && sTtlMillis > 0;
+    }
+
+    /**
+     * Returns a copy of the cached secret, or null if it isn't cached.
+     */
+    static synchronized byte[] get(String secretName) {
+        Entry entry = sEntries.get(secretName);
+        if (entry != null && entry.expiresAt <= SystemClock.elapsedRealtime()) {
+            remove(secretName);
+            entry = null;
+        }
+        if (entry == null) {
+            if (isEnabled()) {
+                sMisses++;
+            }
+            return null;
+        }
+        sHits++;
+        return entry.secret.clone();
+    }
+
+    /**
+     * Returns the generation to pass to [put] for a secret about to be read.
+     */
+    static synchronized long getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Caches a copy of the secret, unless it's larger than the whole cache or
+     * the cache was invalidated since the secret was read.
+     */
+    static synchronized void put(String secretName, byte[] secret, long generation) {
+        if (!isEnabled() || secret.length > sMaxBytes || generation != sGeneration) {
+            return;
+        }
+        remove(secretName);
+        sEntries.put(secretName, new Entry(secret.clone(), SystemClock.elapsedRealtime() + sTtlMillis));
+        sBytes += secret.length;
+        trim();
+    }
+
+    static synchronized void invalidate(String secretName) {
+        sGeneration++;
+        remove(secretName);
+    }
+
+    static synchronized void clear() {
+        sGeneration++;
+        for (Entry entry : sEntries.values()) {
+            Arrays.fill(entry.secret, (byte) 0);
+        }
+        sEntries.clear();
+        sBytes = 0;
+    }
+
+    static synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("entries", sEntries.size());
+        json.put("bytes", sBytes);
+        json.put("hits", sHits);
+        json.put("misses", sMisses);
+        return json;
+    }
+
+    private static void remove(String secretName) {
+        Entry entry = sEntries.remove(secretName);
+        if (entry != null) {
+            sBytes -= entry.secret.length;
+            Arrays.fill(entry.secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Evicts the least recently used secrets until the cache fits its limit.
+     */
+    private static void trim() {
+        Iterator<Entry> iterator = sEntries.values().iterator();
+        while (sBytes > sMaxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            sBytes -= entry.secret.length;
+            Arrays.fill(entry.secret, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persisted index of the stored secrets and their metadata, so that secrets
+ * can be listed and their existence checked from memory, without going to the
+ * SecretStore or the keystore.
+ *
+ * The index is a small binary file, read once and rewritten as a whole to a
+ * temporary file renamed over the old one after each change. If it is missing
+ * it is rebuilt from the names in the SecretStore, without the metadata which
+ * only the calls setting the secrets know.
+ */
+final class SecretIndex {
+    private static final String TAG = "SecretIndex";
+
+    private static final String DIRECTORY = "system_unlock";
+    private static final String INDEX_FILE = "index.bin";
+
+    private static final int MAGIC = 0x53554931; // "SUI1"
+    // Names the plugin stores for itself, which aren't secrets of the app
+    static final String RESERVED_PREFIX = "__system_unlock_";
+
+    private static SecretIndex sInstance = null;
+
+    private final File file;
+    private final Map<String, Entry> entries;
+
+    static final class Entry {
+        final String secretName;
+        // Null for secrets stored before the index existed
+        final SecretScope scope;
+        final LockBehavior lockBehavior;
+        final long size;
+        final long createdAt;
+        final long updatedAt;
+
+        Entry(String secretName, SecretScope scope, LockBehavior lockBehavior, long size, long createdAt, long updatedAt) {
+            this.secretName = secretName;
+            this.scope = scope;
+            this.lockBehavior = lockBehavior;
+            this.size = size;
+            this.createdAt = createdAt;
+            this.updatedAt = updatedAt;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("secretName", secretName);
+            if (scope != null) {
+                json.put("scope", scope.getJsonString());
+            }
+            if (lockBehavior != null) {
+                json.put("lockBehavior", lockBehavior.getJsonString());
+            }
+            json.put("size", size);
+            json.put("createdAt", createdAt);
+            json.put("updatedAt", updatedAt);
+            return json;
+        }
+    }
+
+    static synchronized SecretIndex getInstance(Context context) throws IOException {
+        if (sInstance == null) {
+            sInstance = new SecretIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SecretIndex(Context context) throws IOException {
+        File directory = new File(context.getNoBackupFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        file = new File(directory, INDEX_FILE);
+        if (file.exists()) {
+            entries = read();
+        } else {
+            entries = new HashMap<>();
+            for (String name : SecretStore.getInstance(context).getNames()) {
+                if (!name.startsWith(RESERVED_PREFIX)) {
+                    entries.put(name, new Entry(name, null, null, 0, 0, 0));
+                }
+            }
+            write();
+            Log.d(TAG, "Rebuilt index of " + entries.size() + " secrets");
+        }
+    }
+
+    synchronized boolean contains(String secretName) {
+        return entries.containsKey(secretName);
+    }
+
+    /**
+     * Returns the entry of the secret, or null if there is none.
+     */
+    synchronized Entry get(String secretName) {
+        return entries.get(secretName);
+    }
+
+    /**
+     * Returns the entries of the secrets whose names start with the prefix,
+     * or of all secrets if it is null.
+     */
+    synchronized List<Entry> list(String prefix) {
+        List<Entry> list = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (prefix == null || entry.secretName.startsWith(prefix)) {
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Records secrets which were just set, with their sizes in bytes, keeping
+     * the creation time of any secret already recorded.
+     */
+    synchronized void put(String[] secretNames, long[] sizes, SecretScope scope, LockBehavior lockBehavior) throws IOException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < secretNames.length; i++) {
+            Entry previous = entries.get(secretNames[i]);
+            long createdAt = previous != null && previous.createdAt != 0 ? previous.createdAt : now;
+            entries.put(secretNames[i], new Entry(secretNames[i], scope, lockBehavior, sizes[i], createdAt, now));
+        }
+        write();
+    }
+
+    synchronized void removeAll(String[] secretNames) throws IOException {
+        boolean changed = false;
+        for (String secretName : secretNames) {
+            changed |= entries.remove(secretName) != null;
+        }
+        if (changed) {
+            write();
+        }
+    }
+
+    private Map<String, Entry> read() throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+                throw new IOException("Unrecognized secret index " + file);
+            }
+            int count = buffer.getInt();
+            Map<String, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] nameBytes = new byte[buffer.getShort() & 0xffff];
+                buffer.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                SecretScope scope = SecretScope.fromValue(buffer.get());
+                LockBehavior lockBehavior = LockBehavior.fromValue(buffer.get());
+                entries.put(name, new Entry(name, scope, lockBehavior,
+                    buffer.getLong(), buffer.getLong(), buffer.getLong()));
+            }
+            return entries;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt secret index " + file, e);
+        }
+    }
+
+    private void write() throws IOException {
+        int length = 8;
+        List<byte[]> names = new ArrayList<>();
+        for (String name : entries.keySet()) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            names.add(nameBytes);
+            length += 2 + nameBytes.length + 2 + 24;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(entries.size());
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            byte[] nameBytes = names.get(i++);
+            buffer.putShort((short) nameBytes.length);
+            buffer.put(nameBytes);
+            buffer.put((byte) (entry.scope != null ? entry.scope.getValue() : 0));
+            buffer.put((byte) (entry.lockBehavior != null ? entry.lockBehavior.getValue() : 0));
+            buffer.putLong(entry.size);
+            buffer.putLong(entry.createdAt);
+            buffer.putLong(entry.updatedAt);
+        }
+        buffer.flip();
+
+        long start = PluginMetrics.start();
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            PluginMetrics.record(PluginMetrics.Phase.STORAGE_WRITE, start);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Can't replace " + file);
+        }
+    }
+}
@@ -0,0 +1,747 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+import android.security.keystore.UserNotAuthenticatedException;
+import android.util.Log;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+
+/**
+ * The secret operations themselves, independent of how the user is prompted.
+ * They're run by BiometricActivity once the user has authenticated, and by
+ * SystemUnlock directly when the keys may still be usable without a prompt.
+ */
+final class SecretOperations {
+    private static final String TAG = "SecretOperations";
+
+    // One lock per secret, by name
+    private static final Map<String, Object> sLocks = new HashMap<>();
+
+    private final Context mContext;
+    private final CryptographyManager mCryptographyManager;
+    private final PromptInfo mPromptInfo;
+    // The Cipher authenticated by the prompt, for the operation to use once
+    private Cipher mAuthenticatedCipher = null;
+    // Envelope keyrings decrypted by the operation so far, by keyring name
+    private final Map<String, EnvelopeKeyring> mKeyrings = new HashMap<>();
+
+    private interface LockedAction<T> {
+        T run() throws CryptoException;
+    }
+
+    SecretOperations(Context context, CryptographyManager cryptographyManager, PromptInfo promptInfo) {
+        mContext = context;
+        mCryptographyManager = cryptographyManager;
+        mPromptInfo = promptInfo;
+    }
+
+    /**
+     * Whether an authenticated key may let the operation succeed without
+     * prompting, so it's worth trying before showing a prompt.
+     */
+    boolean canRunWithoutPrompt() {
+        if (mPromptInfo.getSessionToken() != null) {
+            switch (mPromptInfo.getType()) {
+                case SET_SECRET:
+                case SET_SECRETS:
+                case GET_SECRET:
+                case GET_SECRETS:
+                case DELETE_SECRET:
+                case DELETE_SECRETS:
+                    return true;
+            }
+        }
+        switch (mPromptInfo.getType()) {
+            case SET_SECRET:
+            case SET_SECRETS:
+            case GET_SECRET:
+            case GET_SECRETS:
+                return mPromptInfo.getBatch() != ActionBatchControl.START;
+            case DELETE_SECRET:
+            case DELETE_SECRETS:
+                return mPromptInfo.getBatch() == ActionBatchControl.CONTINUE;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether the operation uses a key which needs the user to authenticate
+     * each use of it, so that its Cipher has to be set up by [prepareCipher]
+     * and authenticated by the prompt, and trying without a prompt would
+     * only fail.
+     */
+    boolean isBoundToPrompt() throws CryptoException {
+        switch (mPromptInfo.getType()) {
+            case SET_SECRET:
+                return mPromptInfo.usesPerOperationKeys();
+            case GET_SECRET:
+                String token = mPromptInfo.getSessionToken();
+                if (token != null && SessionManager.hasSecret(token, mPromptInfo.getSecretName())) {
+                    return false;
+                }
+                return mCryptographyManager.isPerOperationKey(mPromptInfo.getSecretName());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sets up the Cipher for the prompt to authenticate, for an operation
+     * which [isBoundToPrompt].
+     */
+    Cipher prepareCipher() throws CryptoException {
+        String secretName = mPromptInfo.getSecretName();
+        switch (mPromptInfo.getType()) {
+            case SET_SECRET:
+                synchronized (getLock(secretName)) {
+                    return mCryptographyManager.getInitializedCipherForEncryption(mPromptInfo);
+                }
+            case GET_SECRET:
+                synchronized (getLock(secretName)) {
+                    byte[] initializationVector = EncryptedData
+                        .loadInitializationVector(secretName, mContext);
+                    return mCryptographyManager.getInitializedCipherForDecryption(
+                        secretName, initializationVector);
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the lock to hold while reading or writing the secret's key and
+     * stored record, so that calls on the same secret running in parallel
+     * can't store a record under a key another call has since replaced, or
+     * read one record's initialization vector with another's ciphertext. Taken
+     * before any EnvelopeKeyring lock.
+     */
+    private static Object getLock(String secretName) {
+        synchronized (sLocks) {
+            Object lock = sLocks.get(secretName);
+            if (lock == null) {
+                lock = new Object();
+                sLocks.put(secretName, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Runs the action holding the locks of all of the secrets, taken in order
+     * of name so that calls on overlapping sets of secrets can't deadlock.
+     */
+    private static <T> T withLocks(String[] secretNames, LockedAction<T> action) throws CryptoException {
+        String[] sorted = secretNames.clone();
+        Arrays.sort(sorted);
+        return withLocks(sorted, 0, action);
+    }
+
+    private static <T> T withLocks(String[] sortedNames, int index, LockedAction<T> action) throws CryptoException {
+        if (index == sortedNames.length) {
+            return action.run();
+        }
+        synchronized (getLock(sortedNames[index])) {
+            return withLocks(sortedNames, index + 1, action);
+        }
+    }
+
+    /**
+     * Whether the operation failed only because the user has to authenticate
+     * before the key can be used.
+     */
+    static boolean needsAuthentication(CryptoException e) {
+        return e.getCause() instanceof UserNotAuthenticatedException;
+    }
+
+    void checkArgs() throws CryptoException {
+        if (mPromptInfo.getSessionToken() != null
+                && !SessionManager.isActive(mPromptInfo.getSessionToken())) {
+            throw new CryptoException(PluginError.BIOMETRIC_SESSION_EXPIRED);
+        }
+        switch (mPromptInfo.getType()) {
+            case SET_SECRET:
+                if (mPromptInfo.getSecret() == null && mPromptInfo.getSecretBytes() == null) {
+                    throw new CryptoException(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
+                }
+                break;
+            case SET_SECRETS:
+                if (mPromptInfo.getSecretNames() == null || mPromptInfo.getSecrets() == null) {
+                    throw new CryptoException(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
+                }
+                break;
+            case GET_SECRETS:
+                if (mPromptInfo.getSecretNames() == null) {
+                    throw new CryptoException(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
+                }
+                break;
+            case BEGIN_SESSION:
+                if (mPromptInfo.getSecretNames() == null
+                        || mPromptInfo.getSessionDurationSeconds() <= 0) {
+                    throw new CryptoException(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
+                }
+                break;
+            case DELETE_SECRETS:
+                // An empty prefix would delete every secret
+                if (mPromptInfo.getSecretNames() == null
+                        && (mPromptInfo.getPrefix() == null || mPromptInfo.getPrefix().isEmpty())) {
+                    throw new CryptoException(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Runs the operation, and returns the result to send back, which is plain
+     * success for operations returning nothing. Secrets are encoded into the
+     * result straight away so the plaintext arrays can be zeroed. Whether the
+     * user was just prompted only matters to operations on several secrets.
+     */
+    PluginResult run(boolean prompted) throws CryptoException {
+        return run(prompted, null);
+    }
+
+    /**
+     * Runs the operation with the Cipher from [prepareCipher] once the prompt
+     * has authenticated it, if there is one.
+     */
+    PluginResult run(boolean prompted, Cipher authenticatedCipher) throws CryptoException {
+        mAuthenticatedCipher = authenticatedCipher;
+        try {
+            switch (mPromptInfo.getType()) {
+                case SET_SECRET:
+                    setSecret();
+                    return success();
+                case SET_SECRETS:
+                    setSecrets();
+                    return success();
+                case GET_SECRET:
+                    return getSecret();
+                case GET_SECRETS:
+                    return getSecrets(prompted);
+                case DELETE_SECRET:
+                    deleteSecret();
+                    return success();
+                case DELETE_SECRETS:
+                    return deleteSecrets();
+                case BEGIN_SESSION:
+                    return beginSession();
+                default:
+                    return success();
+            }
+        } finally {
+            for (EnvelopeKeyring keyring : mKeyrings.values()) {
+                keyring.clear();
+            }
+            mKeyrings.clear();
+        }
+    }
+
+    private void setSecret() throws CryptoException {
+        String text = mPromptInfo.getSecret();
+        byte[] bytes = mPromptInfo.getSecretBytes();
+        synchronized (getLock(mPromptInfo.getSecretName())) {
+            if (mPromptInfo.usesEnvelope()) {
+                setEnvelopeSecrets(new String[] { mPromptInfo.getSecretName() },
+                    new byte[][] { bytes != null ? bytes : text.getBytes(StandardCharsets.UTF_8) });
+                ChunkedSecretStore.delete(mPromptInfo.getSecretName(), mContext);
+            } else if (mPromptInfo.getChunked()) {
+                setChunkedSecret(mPromptInfo.getSecretName(), text, bytes, getEncryptionCipher());
+            } else {
+                Cipher cipher = getEncryptionCipher();
+                EncryptedData encryptedData = bytes != null
+                    ? mCryptographyManager.encryptData(bytes, cipher)
+                    : mCryptographyManager.encryptData(text, cipher);
+                encryptedData.save(mPromptInfo.getSecretName(), mContext);
+                ChunkedSecretStore.delete(mPromptInfo.getSecretName(), mContext);
+            }
+        }
+        SecretCache.invalidate(mPromptInfo.getSecretName());
+        SessionManager.onSecretSet(mPromptInfo.getSessionToken(), mPromptInfo.getSecretName(),
+            bytes != null ? bytes : text.getBytes(StandardCharsets.UTF_8));
+        indexSecrets(new String[] { mPromptInfo.getSecretName() },
+            new long[] { bytes != null ? bytes.length : ChunkedSecretStore.utf8Length(text) });
+    }
+
+    private Cipher getEncryptionCipher() throws CryptoException {
+        Cipher cipher = takeAuthenticatedCipher();
+        if (cipher == null) {
+            cipher = mCryptographyManager.getInitializedCipherForEncryption(mPromptInfo);
+        }
+        return cipher;
+    }
+
+    /**
+     * Stores the secret in chunks under a new data key, and stores the data key
+     * encrypted with the secret's keystore key in place of the secret itself.
+     */
+    private void setChunkedSecret(String secretName, String text, byte[] bytes, Cipher cipher) throws CryptoException {
+        byte[] dataKey = ChunkedSecretStore.newDataKey();
+        try {
+            EncryptedData encryptedDataKey = mCryptographyManager
+                .encryptData(dataKey, cipher);
+            if (bytes != null) {
+                ChunkedSecretStore.write(secretName, bytes, dataKey, mContext);
+            } else {
+                ChunkedSecretStore.write(secretName, text, dataKey, mContext);
+            }
+            encryptedDataKey.save(secretName, mContext);
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Creates the keys and encrypts every secret before saving any of them,
+     * so either all of the secrets are stored or none are. Keys replaced
+     * before a failure stay replaced though, see
+     * [CryptographyManager.getInitializedCiphersForEncryption].
+     */
+    private void setSecrets() throws CryptoException {
+        String[] secretNames = mPromptInfo.getSecretNames();
+        String[] secrets = mPromptInfo.getSecrets();
+        withLocks(secretNames, () -> {
+            if (mPromptInfo.usesEnvelope()) {
+                byte[][] plaintexts = new byte[secrets.length][];
+                for (int i = 0; i < secrets.length; i++) {
+                    plaintexts[i] = secrets[i].getBytes(StandardCharsets.UTF_8);
+                }
+                setEnvelopeSecrets(secretNames, plaintexts);
+            } else {
+                Cipher[] ciphers = mCryptographyManager
+                    .getInitializedCiphersForEncryption(secretNames, mPromptInfo);
+                EncryptedData[] encryptedData = new EncryptedData[secretNames.length];
+                for (int i = 0; i < secretNames.length; i++) {
+                    encryptedData[i] = mCryptographyManager.encryptData(secrets[i], ciphers[i]);
+                }
+                EncryptedData.saveAll(secretNames, encryptedData, mContext);
+            }
+            return null;
+        });
+        long[] sizes = new long[secretNames.length];
+        for (int i = 0; i < secretNames.length; i++) {
+            ChunkedSecretStore.delete(secretNames[i], mContext);
+            SecretCache.invalidate(secretNames[i]);
+            SessionManager.onSecretSet(mPromptInfo.getSessionToken(), secretNames[i],
+                secrets[i].getBytes(StandardCharsets.UTF_8));
+            sizes[i] = ChunkedSecretStore.utf8Length(secrets[i]);
+        }
+        indexSecrets(secretNames, sizes);
+    }
+
+    /**
+     * Records secrets which were just set in SecretIndex. They're stored by
+     * then, so failing to index them only leaves the index behind, and
+     * doesn't fail the call.
+     */
+    private void indexSecrets(String[] secretNames, long[] sizes) {
+        try {
+            SecretIndex.getInstance(mContext).put(
+                secretNames, sizes, mPromptInfo.getScope(), mPromptInfo.getLockBehavior());
+        } catch (IOException e) {
+            Log.w(TAG, "Can't index secrets", e);
+        }
+    }
+
+    private void unindexSecrets(String[] secretNames) {
+        try {
+            SecretIndex.getInstance(mContext).removeAll(secretNames);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't remove secrets from the index", e);
+        }
+    }
+
+    /**
+     * Stores the secrets in envelope mode, each under a new data key in the
+     * keyring for the call's scope and lock behavior, and saves them together
+     * with the keyring in a single write. The keyring's master key is created
+     * with the call's options the first time. The keyring's lock is held
+     * throughout, as other writes to it may be running on other threads.
+     */
+    private void setEnvelopeSecrets(String[] secretNames, byte[][] plaintexts) throws CryptoException {
+        SecretScope scope = mPromptInfo.getScope();
+        LockBehavior lockBehavior = mPromptInfo.getLockBehavior();
+        synchronized (EnvelopeKeyring.getLock(scope, lockBehavior)) {
+            EnvelopeKeyring keyring;
+            try {
+                keyring = EnvelopeKeyring.load(scope, lockBehavior, mCryptographyManager, mContext);
+            } catch (KeyInvalidatedException e) {
+                // The secrets of the keyring are lost with its master key, so start over
+                keyring = EnvelopeKeyring.load(scope, lockBehavior, null, mContext);
+                mCryptographyManager.removeKey(keyring.getMasterKeyName());
+            }
+
+            String[] names = Arrays.copyOf(secretNames, secretNames.length + 1);
+            EncryptedData[] encryptedData = new EncryptedData[names.length];
+            try {
+                keyring.prune(mContext);
+                for (int i = 0; i < secretNames.length; i++) {
+                    encryptedData[i] = keyring.encrypt(secretNames[i], plaintexts[i]);
+                }
+                Cipher cipher = mCryptographyManager
+                    .getInitializedCipherForEncryption(keyring.getMasterKeyName(), mPromptInfo);
+                names[secretNames.length] = keyring.getKeyringName();
+                encryptedData[secretNames.length] = keyring.seal(mCryptographyManager, cipher);
+            } finally {
+                keyring.clear();
+            }
+            EncryptedData.saveAll(names, encryptedData, mContext);
+        }
+
+        // Secrets previously stored with keys of their own don't need them anymore
+        for (String secretName : secretNames) {
+            if (mCryptographyManager.hasKey(secretName)) {
+                mCryptographyManager.removeKey(secretName);
+            }
+        }
+    }
+
+    private PluginResult getSecret() throws CryptoException {
+        byte[] memorySecret = getSecretFromMemory(mPromptInfo.getSecretName());
+        if (memorySecret != null) {
+            try {
+                if (mPromptInfo.isRanged()) {
+                    int start = Math.max(0, Math.min(mPromptInfo.getOffset(), memorySecret.length));
+                    int end = mPromptInfo.getLength() < 0
+                        ? memorySecret.length
+                        : (int) Math.min(memorySecret.length, (long) start + mPromptInfo.getLength());
+                    return toResult(Arrays.copyOfRange(memorySecret, start, end));
+                } else if (mPromptInfo.getBinary()) {
+                    return new PluginResult(PluginResult.Status.OK, memorySecret);
+                } else {
+                    return new PluginResult(PluginResult.Status.OK, new String(memorySecret, StandardCharsets.UTF_8));
+                }
+            } finally {
+                Arrays.fill(memorySecret, (byte) 0);
+            }
+        }
+        if (mPromptInfo.isRanged()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            loadSecretRange(
+                mPromptInfo.getSecretName(), mPromptInfo.getOffset(), mPromptInfo.getLength(), out);
+            return toResult(out.toByteArray());
+        } else if (mPromptInfo.getBinary()) {
+            return toResult(loadSecretBytes(mPromptInfo.getSecretName()));
+        } else {
+            return new PluginResult(PluginResult.Status.OK, loadSecret(mPromptInfo.getSecretName()));
+        }
+    }
+
+    private static PluginResult success() {
+        return new PluginResult(PluginResult.Status.OK, "biometric_success");
+    }
+
+    /**
+     * Returns a result holding the secret, which it encodes on construction,
+     * and zeroes the secret.
+     */
+    private static PluginResult toResult(byte[] secret) {
+        try {
+            return new PluginResult(PluginResult.Status.OK, secret);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns a copy of the secret held by the call's session or by
+     * SecretCache, or null if it has to be decrypted.
+     */
+    private byte[] getSecretFromMemory(String secretName) {
+        String token = mPromptInfo.getSessionToken();
+        byte[] secret = token != null ? SessionManager.getSecret(token, secretName) : null;
+        return secret != null ? secret : SecretCache.get(secretName);
+    }
+
+    private Cipher takeAuthenticatedCipher() {
+        Cipher cipher = mAuthenticatedCipher;
+        mAuthenticatedCipher = null;
+        return cipher;
+    }
+
+    /**
+     * Decrypts the secret's stored record, with the secret's own key or, in
+     * envelope mode, with its data key from the keyring.
+     */
+    private byte[] decryptRecord(String secretName) throws CryptoException {
+        synchronized (getLock(secretName)) {
+            Cipher cipher = takeAuthenticatedCipher();
+            if (cipher == null) {
+                byte[] initializationVector = EncryptedData
+                    .loadInitializationVector(secretName, mContext);
+                if (EnvelopeKeyring.isEnvelope(initializationVector)) {
+                    return getKeyring(initializationVector).decrypt(secretName, initializationVector,
+                        EncryptedData.loadCiphertext(secretName, mContext));
+                }
+                cipher = mCryptographyManager
+                    .getInitializedCipherForDecryption(secretName, initializationVector);
+            }
+            byte[] ciphertext = EncryptedData.loadCiphertext(secretName, mContext);
+            return mCryptographyManager.decryptDataBytes(ciphertext, cipher);
+        }
+    }
+
+    /**
+     * Returns the keyring of an envelope secret, decrypting it only once per
+     * operation however many of its secrets are read.
+     */
+    private EnvelopeKeyring getKeyring(byte[] storedIv) throws CryptoException {
+        String keyringName = EnvelopeKeyring.getKeyringName(storedIv);
+        EnvelopeKeyring keyring = mKeyrings.get(keyringName);
+        if (keyring == null) {
+            keyring = EnvelopeKeyring.load(storedIv, mCryptographyManager, mContext);
+            mKeyrings.put(keyringName, keyring);
+        }
+        return keyring;
+    }
+
+    /**
+     * Whether the secret was stored with lockWithDevice, which is what makes
+     * it eligible for SecretCache, going by the lock behavior recorded with it
+     * rather than by how long its key stays usable.
+     */
+    private boolean isLockedWithDevice(String secretName) throws CryptoException {
+        byte[] initializationVector = EncryptedData.loadInitializationVector(secretName, mContext);
+        if (EnvelopeKeyring.isEnvelope(initializationVector)) {
+            return EnvelopeKeyring.getLockBehavior(initializationVector) == LockBehavior.LOCK_WITH_DEVICE;
+        }
+        try {
+            SecretIndex.Entry entry = SecretIndex.getInstance(mContext).get(secretName);
+            if (entry != null && entry.lockBehavior != null) {
+                return entry.lockBehavior == LockBehavior.LOCK_WITH_DEVICE;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the index", e);
+        }
+        // Stored before the index recorded lock behaviors, so judged by its key
+        return mCryptographyManager.isLockedWithDevice(secretName);
+    }
+
+    private String loadSecret(String secretName) throws CryptoException {
+        byte[] secret = loadSecretBytes(secretName);
+        try {
+            return new String(secret, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    private byte[] loadSecretBytes(String secretName) throws CryptoException {
+        byte[] memorySecret = getSecretFromMemory(secretName);
+        if (memorySecret != null) {
+            return memorySecret;
+        }
+        if (ChunkedSecretStore.exists(secretName, mContext)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            loadSecretRange(secretName, 0, -1, out);
+            return out.toByteArray();
+        }
+        long generation = SecretCache.getGeneration();
+        byte[] secret = decryptRecord(secretName);
+        if (SecretCache.isEnabled() && isLockedWithDevice(secretName)) {
+            SecretCache.put(secretName, secret, generation);
+        }
+        return secret;
+    }
+
+    /**
+     * Writes a byte range of the secret to the output stream. For chunked
+     * secrets only the chunks overlapping the range are decrypted.
+     */
+    private void loadSecretRange(String secretName, long offset, long length, OutputStream out) throws CryptoException {
+        // Held across the chunks too, which must match the data key read
+        synchronized (getLock(secretName)) {
+            byte[] plaintext = decryptRecord(secretName);
+            try {
+                if (ChunkedSecretStore.exists(secretName, mContext)) {
+                    // The plaintext is the data key of the chunks
+                    ChunkedSecretStore.read(secretName, plaintext, offset, length, out, mContext);
+                    return;
+                }
+                int start = (int) Math.max(0, Math.min(offset, plaintext.length));
+                int end = length < 0 ? plaintext.length : (int) Math.min(plaintext.length, start + length);
+                out.write(plaintext, start, end - start);
+            } catch (IOException e) {
+                throw new CryptoException(e.getMessage(), e);
+            } finally {
+                Arrays.fill(plaintext, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Decrypts every requested secret in one pass. Secrets which can't be read
+     * are reported individually, except that before the user has been prompted
+     * the first secret needing authentication aborts the pass so the prompt can
+     * be shown once for all of them. If the call can't prompt, such secrets are
+     * reported as needing authentication instead.
+     */
+    private PluginResult getSecrets(boolean prompted) throws CryptoException {
+        JSONObject secrets = new JSONObject();
+        JSONObject errors = new JSONObject();
+        try {
+            for (String secretName : mPromptInfo.getSecretNames()) {
+                try {
+                    secrets.put(secretName, loadSecret(secretName));
+                } catch (CryptoException e) {
+                    JSONObject error = new JSONObject();
+                    if (!prompted && needsAuthentication(e)) {
+                        if (!mPromptInfo.getInteractionNotAllowed()) {
+                            throw e;
+                        }
+                        error.put("code", PluginError.BIOMETRIC_AUTHENTICATION_REQUIRED.getValue());
+                        error.put("message", PluginError.BIOMETRIC_AUTHENTICATION_REQUIRED.getMessage());
+                    } else {
+                        error.put("code", e.getError().getValue());
+                        error.put("message", e.getMessage());
+                    }
+                    errors.put(secretName, error);
+                }
+            }
+
+            JSONObject result = new JSONObject();
+            result.put("secrets", secrets);
+            result.put("errors", errors);
+            return new PluginResult(PluginResult.Status.OK, result);
+        } catch (JSONException e) {
+            throw new CryptoException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypts the requested secrets once the user has authenticated, and
+     * hands them to a new session. Secrets which can't be read are reported
+     * individually and left out of the session.
+     */
+    private PluginResult beginSession() throws CryptoException {
+        Map<String, byte[]> secrets = new HashMap<>();
+        JSONObject errors = new JSONObject();
+        try {
+            for (String secretName : mPromptInfo.getSecretNames()) {
+                try {
+                    secrets.put(secretName, loadSecretBytes(secretName));
+                } catch (CryptoException e) {
+                    JSONObject error = new JSONObject();
+                    error.put("code", e.getError().getValue());
+                    error.put("message", e.getMessage());
+                    errors.put(secretName, error);
+                }
+            }
+
+            SessionManager.Session session = SessionManager.begin(
+                mPromptInfo.getSessionDurationSeconds() * 1000L, secrets);
+            JSONObject result = new JSONObject();
+            result.put("token", session.token);
+            result.put("expiresAt", session.expiresAt);
+            result.put("errors", errors);
+            return new PluginResult(PluginResult.Status.OK, result);
+        } catch (JSONException e) {
+            throw new CryptoException(e.getMessage(), e);
+        } finally {
+            // The session keeps its own copies
+            for (byte[] secret : secrets.values()) {
+                Arrays.fill(secret, (byte) 0);
+            }
+        }
+    }
+
+    private void deleteSecret() throws CryptoException {
+        String secretName = mPromptInfo.getSecretName();
+        if (!exists(secretName)) {
+            throw new CryptoException(PluginError.BIOMETRIC_NO_SECRET_FOUND);
+        }
+        deleteSecrets(new String[] { secretName });
+    }
+
+    /**
+     * Whether anything is stored for the secret: its key, its record or its
+     * entry in the index.
+     */
+    private boolean exists(String secretName) throws CryptoException {
+        if (mCryptographyManager.hasKey(secretName) || EncryptedData.exists(secretName, mContext)) {
+            return true;
+        }
+        try {
+            return SecretIndex.getInstance(mContext).contains(secretName);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read the index", e);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the secrets named, or those whose names start with the prefix,
+     * and returns the names of those which existed.
+     */
+    private PluginResult deleteSecrets() throws CryptoException {
+        String[] secretNames = mPromptInfo.getSecretNames();
+        List<String> found = new ArrayList<>();
+        if (secretNames == null) {
+            try {
+                for (SecretIndex.Entry entry : SecretIndex.getInstance(mContext).list(mPromptInfo.getPrefix())) {
+                    found.add(entry.secretName);
+                }
+            } catch (IOException e) {
+                throw new CryptoException(e.getMessage(), e);
+            }
+            secretNames = found.toArray(new String[0]);
+        } else {
+            for (String secretName : secretNames) {
+                if (exists(secretName)) {
+                    found.add(secretName);
+                }
+            }
+        }
+        deleteSecrets(secretNames);
+
+        try {
+            JSONArray deleted = new JSONArray();
+            for (String secretName : found) {
+                deleted.put(secretName);
+            }
+            JSONObject result = new JSONObject();
+            result.put("secretNames", deleted);
+            return new PluginResult(PluginResult.Status.OK, result);
+        } catch (JSONException e) {
+            throw new CryptoException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deletes the secrets in one pass: their keystore keys, their stored
+     * records with a single write to the secret store, their chunks, and
+     * whatever is held about them in memory and in the index. Envelope
+     * secrets have no keys of their own, and their data keys are dropped
+     * from the keyring the next time it is written.
+     */
+    private void deleteSecrets(String[] secretNames) throws CryptoException {
+        withLocks(secretNames, () -> {
+            mCryptographyManager.removeKeys(secretNames);
+            EncryptedData.removeAll(secretNames, mContext);
+            for (String secretName : secretNames) {
+                ChunkedSecretStore.delete(secretName, mContext);
+            }
+            return null;
+        });
+        for (String secretName : secretNames) {
+            SecretCache.invalidate(secretName);
+            SessionManager.onSecretDeleted(secretName);
+        }
+        unindexSecrets(secretNames);
+    }
+}
@@ -0,0 +1,77 @@
+package com.tokenized.cordova.system_unlock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.biometric.BiometricPrompt;
+
+import javax.crypto.Cipher;
+
+/**
+ * Prompt callback shared by the prompt hosts, which translates the outcome of
+ * the prompt into the plugin's error codes.
+ */
+abstract class SecretPromptCallback extends BiometricPrompt.AuthenticationCallback {
+    private final long mCreatedAt = PluginMetrics.start();
+    private long mPromptStart = 0;
+
+    /**
+     * Called once the user has authenticated, on the main thread, with the
+     * Cipher the prompt authenticated if it was given one.
+     */
+    abstract void onAuthenticated(@Nullable Cipher cipher);
+
+    abstract void onError(int code, String message);
+
+    /**
+     * Called by the prompt host as it shows the prompt, to time getting the
+     * prompt up and then the user's response apart.
+     */
+    void onPromptShown() {
+        PluginMetrics.record(PluginMetrics.Phase.PROMPT, mCreatedAt);
+        mPromptStart = PluginMetrics.start();
+    }
+
+    private void onPromptDone() {
+        if (mPromptStart != 0) {
+            PluginMetrics.record(PluginMetrics.Phase.USER_RESPONSE, mPromptStart);
+            mPromptStart = 0;
+        }
+    }
+
+    @Override
+    public void onAuthenticationSucceeded(@NonNull BiometricPrompt.AuthenticationResult result) {
+        onPromptDone();
+        BiometricPrompt.CryptoObject cryptoObject = result.getCryptoObject();
+        onAuthenticated(cryptoObject != null ? cryptoObject.getCipher() : null);
+    }
+
+    @Override
+    public void onAuthenticationError(int errorCode, @NonNull CharSequence errString) {
+        onPromptDone();
+        switch (errorCode) {
+            case BiometricPrompt.ERROR_USER_CANCELED:
+            case BiometricPrompt.ERROR_CANCELED:
+            case BiometricPrompt.ERROR_NEGATIVE_BUTTON:
+                onError(PluginError.BIOMETRIC_DISMISSED.getValue(),
+                    PluginError.BIOMETRIC_DISMISSED.getMessage());
+                return;
+            case BiometricPrompt.ERROR_LOCKOUT:
+                onError(PluginError.BIOMETRIC_LOCKED_OUT.getValue(), errString.toString());
+                return;
+            case BiometricPrompt.ERROR_LOCKOUT_PERMANENT:
+                onError(PluginError.BIOMETRIC_LOCKED_OUT_PERMANENT.getValue(), errString.toString());
+                return;
+            default:
+                onError(errorCode, errString.toString());
+        }
+    }
+
+    @Override
+    public void onAuthenticationFailed() {
+        onPromptDone();
+        onError(
+            PluginError.BIOMETRIC_AUTHENTICATION_FAILED.getValue(),
+            PluginError.BIOMETRIC_AUTHENTICATION_FAILED.getMessage()
+        );
+    }
+}
@@ -1,8 +1,6 @@
 package com.tokenized.cordova.system_unlock;
 
-import java.util.Objects;
-
-public enum SecretScope {
+public enum SecretScope implements EnumLookup.Coded {
     SYNC(1, "sync"),
     BACKUP(2, "backup"),
     ONE_DEVICE(3, "oneDevice"),
@@ -12,34 +10,28 @@ public enum SecretScope {
     private int value;
     private String jsonString;
 
+    private static final EnumLookup<SecretScope> sLookup = new EnumLookup<>(values());
+
     SecretScope(int value, String jsonString) {
         this.value = value;
         this.jsonString = jsonString;
     }
 
+    @Override
     public int getValue() {
         return value;
     }
 
+    @Override
     public String getJsonString() {
         return jsonString;
     }
 
     public static SecretScope fromValue(int val) {
-        for (SecretScope scope : values()) {
-            if (scope.getValue() == val) {
-                return scope;
-            }
-        }
-        return null;
+        return sLookup.fromValue(val);
     }
 
     public static SecretScope fromJsonString(String jsonString) {
-        for (SecretScope scope : values()) {
-            if (Objects.equals(scope.getJsonString(), jsonString)) {
-                return scope;
-            }
-        }
-        return null;
+        return sLookup.fromJsonString(jsonString);
     }
 }
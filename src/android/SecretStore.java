@@ -0,0 +1,441 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Dedicated on-disk store for encrypted secret records, kept apart from the
+ * app's own preferences.
+ *
+ * Records are appended to a binary log, each holding a secret name with its
+ * initialization vector and ciphertext (or a deletion marker) followed by a
+ * CRC32 of the record. The log is read through a memory mapping, and an
+ * in-memory index maps each name to its latest record. Once enough of the log
+ * is overwritten records it is compacted in the background by copying the
+ * live records to a new file and renaming it over the old one.
+ */
+final class SecretStore {
+    private static final String TAG = "SecretStore";
+
+    private static final String DIRECTORY = "system_unlock";
+    private static final String LOG_FILE = "secrets.log";
+    private static final String COMPACTION_FILE = "secrets.log.compact";
+    private static final String MIGRATION_FILE = "secrets.log.migrate";
+
+    private static final int MAGIC = 0x53554c31; // "SUL1"
+    private static final int HEADER_SIZE = 4;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    private static final long COMPACTION_MIN_GARBAGE_BYTES = 64 * 1024;
+
+    // Where EncryptedData used to keep secrets, in the default SharedPreferences
+    private static final String LEGACY_IV_PREFIX = "SystemLock_iv_";
+    private static final String LEGACY_CIPHERTEXT_PREFIX = "SystemLock_enc_";
+    private static final String LEGACY_DEFAULT_IV = "__biometric-aio-iv";
+    private static final String LEGACY_DEFAULT_CIPHERTEXT = "__biometric-aio-ciphertext";
+
+    private static SecretStore sInstance = null;
+
+    private final File directory;
+    private final File file;
+    private final Map<String, Record> index = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long size;
+    private long garbageBytes;
+    private boolean compactionScheduled = false;
+
+    private static final class Record {
+        final long offset;
+        final int length;
+        final long ivOffset;
+        final int ivLength;
+        final long ciphertextOffset;
+        final int ciphertextLength;
+
+        Record(long offset, int length, long ivOffset, int ivLength, long ciphertextOffset, int ciphertextLength) {
+            this.offset = offset;
+            this.length = length;
+            this.ivOffset = ivOffset;
+            this.ivLength = ivLength;
+            this.ciphertextOffset = ciphertextOffset;
+            this.ciphertextLength = ciphertextLength;
+        }
+    }
+
+    static synchronized SecretStore getInstance(Context context) throws IOException {
+        if (sInstance == null) {
+            sInstance = new SecretStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SecretStore(Context context) throws IOException {
+        directory = new File(context.getNoBackupFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        file = new File(directory, LOG_FILE);
+        if (!file.exists()) {
+            migrateLegacyPreferences(context);
+        }
+        open();
+    }
+
+    synchronized boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    synchronized List<String> getNames() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * Returns the initialization vector stored for the name, or null if the
+     * store has no record of it.
+     */
+    synchronized byte[] getInitializationVector(String name) throws IOException {
+        Record record = index.get(name);
+        if (record == null) {
+            return null;
+        }
+        return read(record.ivOffset, record.ivLength);
+    }
+
+    /**
+     * Returns the ciphertext stored for the name, or null if the store has no
+     * record of it.
+     */
+    synchronized byte[] getCiphertext(String name) throws IOException {
+        Record record = index.get(name);
+        if (record == null) {
+            return null;
+        }
+        return read(record.ciphertextOffset, record.ciphertextLength);
+    }
+
+    synchronized void put(String name, byte[] initializationVector, byte[] ciphertext) throws IOException {
+        putAll(new String[] { name }, new byte[][] { initializationVector }, new byte[][] { ciphertext });
+    }
+
+    /**
+     * Appends records for all of the names and syncs the log once, so either
+     * all of them are durable or the torn tail is discarded on the next open.
+     */
+    synchronized void putAll(String[] names, byte[][] initializationVectors, byte[][] ciphertexts) throws IOException {
+        ByteBuffer[] records = new ByteBuffer[names.length];
+        for (int i = 0; i < names.length; i++) {
+            records[i] = encodeRecord(RECORD_PUT, names[i], initializationVectors[i], ciphertexts[i]);
+        }
+        long position = append(records);
+        for (ByteBuffer record : records) {
+            record.rewind();
+            position += indexRecord(record, position);
+        }
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * Appends deletion records for those of the names which are stored, and
+     * syncs the log once.
+     */
+    synchronized void removeAll(String[] names) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>();
+        for (String name : names) {
+            if (index.containsKey(name)) {
+                records.add(encodeRecord(RECORD_DELETE, name, null, null));
+            }
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        long position = append(records.toArray(new ByteBuffer[0]));
+        for (ByteBuffer record : records) {
+            record.rewind();
+            position += indexRecord(record, position);
+        }
+        maybeScheduleCompaction();
+    }
+
+    private long append(ByteBuffer[] records) throws IOException {
+        long start = size;
+        long position = start;
+        for (ByteBuffer record : records) {
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+        }
+        channel.force(false);
+        size = position;
+        return start;
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        if (mapped == null || offset + length > mapped.capacity()) {
+            remap();
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private void open() throws IOException {
+        index.clear();
+        garbageBytes = 0;
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        size = channel.size();
+        if (size < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+            header.flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+            size = HEADER_SIZE;
+        }
+        remap();
+        if (mapped.getInt(0) != MAGIC) {
+            throw new IOException("Unrecognized secret store " + file);
+        }
+
+        long position = HEADER_SIZE;
+        while (position < size) {
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            int length = indexRecord(view, position);
+            if (length <= 0) {
+                break;
+            }
+            position += length;
+        }
+        if (position < size) {
+            // Left behind by a write that didn't complete
+            Log.w(TAG, "Discarding " + (size - position) + " bytes from the end of " + file);
+            channel.truncate(position);
+            channel.force(true);
+            size = position;
+            remap();
+        }
+        Log.d(TAG, "Opened " + file + " with " + index.size() + " secrets");
+    }
+
+    private void remap() throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Validates the record at the buffer's position, which is at the given
+     * offset in the log, and applies it to the index. Returns the length of
+     * the record, or 0 if it is incomplete or corrupt.
+     */
+    private int indexRecord(ByteBuffer buffer, long offset) {
+        int start = buffer.position();
+        if (buffer.remaining() < 3) {
+            return 0;
+        }
+        byte type = buffer.get();
+        int nameLength = buffer.getShort() & 0xffff;
+        if (buffer.remaining() < nameLength) {
+            return 0;
+        }
+        byte[] nameBytes = new byte[nameLength];
+        buffer.get(nameBytes);
+
+        int ivLength = 0;
+        int ciphertextLength = 0;
+        if (type == RECORD_PUT) {
+            if (buffer.remaining() < 2) {
+                return 0;
+            }
+            ivLength = buffer.getShort() & 0xffff;
+            if (buffer.remaining() < ivLength + 4) {
+                return 0;
+            }
+            buffer.position(buffer.position() + ivLength);
+            ciphertextLength = buffer.getInt();
+            if (ciphertextLength < 0 || buffer.remaining() < ciphertextLength) {
+                return 0;
+            }
+            buffer.position(buffer.position() + ciphertextLength);
+        } else if (type != RECORD_DELETE) {
+            return 0;
+        }
+        if (buffer.remaining() < 4) {
+            return 0;
+        }
+        int length = buffer.position() - start + 4;
+        CRC32 crc = new CRC32();
+        ByteBuffer content = buffer.duplicate();
+        content.position(start);
+        content.limit(start + length - 4);
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt()) {
+            return 0;
+        }
+
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+        Record previous;
+        if (type == RECORD_PUT) {
+            long ivOffset = offset + 3 + nameLength + 2;
+            long ciphertextOffset = ivOffset + ivLength + 4;
+            previous = index.put(name, new Record(
+                offset, length, ivOffset, ivLength, ciphertextOffset, ciphertextLength));
+        } else {
+            previous = index.remove(name);
+            garbageBytes += length;
+        }
+        if (previous != null) {
+            garbageBytes += previous.length;
+        }
+        return length;
+    }
+
+    private static ByteBuffer encodeRecord(byte type, String name, byte[] initializationVector, byte[] ciphertext) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = 3 + nameBytes.length + 4;
+        if (type == RECORD_PUT) {
+            length += 2 + initializationVector.length + 4 + ciphertext.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(type);
+        buffer.putShort((short) nameBytes.length);
+        buffer.put(nameBytes);
+        if (type == RECORD_PUT) {
+            buffer.putShort((short) initializationVector.length);
+            buffer.put(initializationVector);
+            buffer.putInt(ciphertext.length);
+            buffer.put(ciphertext);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private void maybeScheduleCompaction() {
+        if (compactionScheduled
+                || garbageBytes < COMPACTION_MIN_GARBAGE_BYTES
+                || garbageBytes < size - garbageBytes) {
+            return;
+        }
+        compactionScheduled = true;
+        new Thread(this::compact, "SystemUnlock-compaction").start();
+    }
+
+    private synchronized void compact() {
+        compactionScheduled = false;
+        File compacted = new File(directory, COMPACTION_FILE);
+        try {
+            remap();
+            try (FileChannel out = new RandomAccessFile(compacted, "rw").getChannel()) {
+                out.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+                header.flip();
+                long position = out.write(header, 0);
+                for (Record record : index.values()) {
+                    ByteBuffer view = mapped.duplicate();
+                    view.limit((int) (record.offset + record.length));
+                    view.position((int) record.offset);
+                    while (view.hasRemaining()) {
+                        position += out.write(view, position);
+                    }
+                }
+                out.force(true);
+            }
+
+            long before = size;
+            channel.close();
+            mapped = null;
+            if (!compacted.renameTo(file)) {
+                Log.w(TAG, "Can't replace " + file + " with compacted log");
+            }
+            open();
+            Log.d(TAG, "Compacted " + file + " from " + before + " to " + size + " bytes");
+        } catch (IOException e) {
+            Log.e(TAG, "Compaction failed", e);
+            try {
+                if (!channel.isOpen()) {
+                    open();
+                }
+            } catch (IOException reopenError) {
+                Log.e(TAG, "Can't reopen " + file, reopenError);
+            }
+        }
+    }
+
+    /**
+     * Moves secrets saved by earlier versions of the plugin out of the default
+     * SharedPreferences. The new log is only put in place once it has been
+     * fully written, and the old entries are removed after that.
+     */
+    private void migrateLegacyPreferences(Context context) throws IOException {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        Map<String, ?> all = preferences.getAll();
+        List<String> migratedKeys = new ArrayList<>();
+
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        log.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).array());
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            String ivKey = entry.getKey();
+            String name;
+            String ciphertextKey;
+            if (LEGACY_DEFAULT_IV.equals(ivKey)) {
+                name = PromptInfo.DEFAULT_SECRET_NAME;
+                ciphertextKey = LEGACY_DEFAULT_CIPHERTEXT;
+            } else if (ivKey.startsWith(LEGACY_IV_PREFIX)) {
+                name = ivKey.substring(LEGACY_IV_PREFIX.length());
+                ciphertextKey = LEGACY_CIPHERTEXT_PREFIX + name;
+            } else {
+                continue;
+            }
+            if (!(entry.getValue() instanceof String) || !(all.get(ciphertextKey) instanceof String)) {
+                continue;
+            }
+            byte[] initializationVector = Base64.decode((String) entry.getValue(), Base64.DEFAULT);
+            byte[] ciphertext = Base64.decode((String) all.get(ciphertextKey), Base64.DEFAULT);
+            ByteBuffer record = encodeRecord(RECORD_PUT, name, initializationVector, ciphertext);
+            log.write(record.array(), 0, record.limit());
+            migratedKeys.add(ivKey);
+            migratedKeys.add(ciphertextKey);
+        }
+
+        File migrated = new File(directory, MIGRATION_FILE);
+        try (FileOutputStream out = new FileOutputStream(migrated)) {
+            log.writeTo(out);
+            out.getFD().sync();
+        }
+        if (!migrated.renameTo(file)) {
+            throw new IOException("Can't create " + file);
+        }
+
+        if (!migratedKeys.isEmpty()) {
+            SharedPreferences.Editor editor = preferences.edit();
+            for (String key : migratedKeys) {
+                editor.remove(key);
+            }
+            editor.commit();
+            Log.d(TAG, "Migrated " + (migratedKeys.size() / 2) + " secrets from preferences");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.tokenized.cordova.system_unlock;
+
+import android.os.SystemClock;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Unlock sessions: secrets decrypted after a single authentication and held
+ * in memory under a random token until the session expires or is ended.
+ *
+ * Keys created with lockAfterUse stay usable for only a few seconds after the
+ * user authenticates, and that can't be extended, so a session holds the
+ * secrets themselves rather than keeping their keys unlocked. Writing a
+ * secret still needs its key, so it only avoids a prompt while the key is
+ * usable anyway.
+ */
+final class SessionManager {
+    private static final int TOKEN_SIZE = 16;
+
+    // Longer sessions are cut short to this, so secrets can't be held forever
+    static final int MAX_DURATION_SECONDS = 60 * 60;
+
+    private static final SecureRandom sRandom = new SecureRandom();
+    private static final Map<String, Session> sSessions = new HashMap<>();
+
+    static final class Session {
+        final String token;
+        // Wall clock time for the caller, and monotonic time for checking
+        final long expiresAt;
+        private final long expiresAtElapsed;
+        private final Map<String, byte[]> secrets;
+
+        private Session(String token, long durationMillis, Map<String, byte[]> secrets) {
+            this.token = token;
+            this.expiresAt = System.currentTimeMillis() + durationMillis;
+            this.expiresAtElapsed = SystemClock.elapsedRealtime() + durationMillis;
+            this.secrets = secrets;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAtElapsed;
+        }
+
+        private void clear() {
+            for (byte[] secret : secrets.values()) {
+                Arrays.fill(secret, (byte) 0);
+            }
+            secrets.clear();
+        }
+    }
+
+    private SessionManager() {
+    }
+
+    /**
+     * Starts a session holding copies of the given secrets, for at most
+     * MAX_DURATION_SECONDS.
+     */
+    static synchronized Session begin(long durationMillis, Map<String, byte[]> secrets) {
+        removeExpired();
+        durationMillis = Math.min(durationMillis, MAX_DURATION_SECONDS * 1000L);
+        byte[] bytes = new byte[TOKEN_SIZE];
+        sRandom.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        Map<String, byte[]> copies = new HashMap<>();
+        for (Map.Entry<String, byte[]> secret : secrets.entrySet()) {
+            copies.put(secret.getKey(), secret.getValue().clone());
+        }
+        Session session = new Session(token.toString(), durationMillis, copies);
+        sSessions.put(session.token, session);
+        return session;
+    }
+
+    static synchronized boolean isActive(String token) {
+        removeExpired();
+        return sSessions.containsKey(token);
+    }
+
+    static synchronized boolean hasSecret(String token, String secretName) {
+        removeExpired();
+        Session session = sSessions.get(token);
+        return session != null && session.secrets.containsKey(secretName);
+    }
+
+    /**
+     * Returns a copy of the secret held by the session, or null if the session
+     * doesn't hold it or isn't active.
+     */
+    static synchronized byte[] getSecret(String token, String secretName) {
+        removeExpired();
+        Session session = sSessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        byte[] secret = session.secrets.get(secretName);
+        return secret != null ? secret.clone() : null;
+    }
+
+    /**
+     * Records a newly set secret in the given session, if any, and in every
+     * other session already holding an older value of it.
+     */
+    static synchronized void onSecretSet(String token, String secretName, byte[] secret) {
+        removeExpired();
+        for (Session session : sSessions.values()) {
+            if (session.token.equals(token) || session.secrets.containsKey(secretName)) {
+                byte[] previous = session.secrets.put(secretName, secret.clone());
+                if (previous != null) {
+                    Arrays.fill(previous, (byte) 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted secret in every session.
+     */
+    static synchronized void onSecretDeleted(String secretName) {
+        for (Session session : sSessions.values()) {
+            byte[] previous = session.secrets.remove(secretName);
+            if (previous != null) {
+                Arrays.fill(previous, (byte) 0);
+            }
+        }
+    }
+
+    static synchronized void end(String token) {
+        Session session = sSessions.remove(token);
+        if (session != null) {
+            session.clear();
+        }
+    }
+
+    static synchronized void endAll() {
+        for (Session session : sSessions.values()) {
+            session.clear();
+        }
+        sSessions.clear();
+    }
+
+    private static void removeExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Session> iterator = sSessions.values().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (session.isExpired(now)) {
+                session.clear();
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.tokenized.cordova.system_unlock;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Keeps keys in memory only, generated in software and never requiring the
+ * user to authenticate. Meant for exercising and load testing the plugin
+ * where the Android keystore isn't available or its timing gets in the way,
+ * never for storing real secrets: the keys are gone when the process ends.
+ */
+class SoftwareKeyStoreBackend implements KeyStoreBackend {
+    private static final int KEY_SIZE = 256;
+    private static final String KEY_ALGORITHM_AES = "AES";
+
+    private final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+
+    @Override
+    public void prewarm() throws GeneralSecurityException {
+        Cipher.getInstance(CipherPool.TRANSFORMATION);
+    }
+
+    @Override
+    public boolean containsKey(String keyName) {
+        return keys.containsKey(keyName);
+    }
+
+    @Override
+    public SecretKey getKey(String keyName) {
+        return keys.get(keyName);
+    }
+
+    @Override
+    public SecretKey createKey(String keyName, PromptInfo promptInfo) throws GeneralSecurityException {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM_AES);
+        keyGenerator.init(KEY_SIZE);
+        SecretKey secretKey = keyGenerator.generateKey();
+        keys.put(keyName, secretKey);
+        return secretKey;
+    }
+
+    @Override
+    public int getAuthenticationValiditySeconds(String keyName) {
+        return keys.containsKey(keyName) ? Integer.MAX_VALUE : -1;
+    }
+
+    @Override
+    public void deleteKey(String keyName) {
+        keys.remove(keyName);
+    }
+
+    @Override
+    public void deleteKeys(String[] keyNames) {
+        for (String keyName : keyNames) {
+            keys.remove(keyName);
+        }
+    }
+
+    @Override
+    public void onKeyInvalidated(String keyName) {
+    }
+
+    @Override
+    public Cipher acquireCipher() throws GeneralSecurityException {
+        // Not from CipherPool, whose Ciphers may already be tied to the
+        // keystore provider by a previous init
+        return Cipher.getInstance(CipherPool.TRANSFORMATION);
+    }
+
+    @Override
+    public void releaseCipher(Cipher cipher) {
+    }
+}
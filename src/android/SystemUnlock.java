@@ -1,16 +1,20 @@
 package com.tokenized.cordova.system_unlock;
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.security.keystore.UserNotAuthenticatedException;
 import android.util.Log;
 
 import androidx.biometric.BiometricManager;
+import androidx.fragment.app.FragmentActivity;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
@@ -21,80 +25,400 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.crypto.Cipher;
 
 public class SystemUnlock extends CordovaPlugin {
     private static final String TAG = "SystemUnlock";
     private static final int REQUEST_CODE_BIOMETRIC = 1;
+    private static final String GET_METRICS = "getMetrics";
+    private static final String PARALLELISM_PREFERENCE = "SystemUnlockParallelism";
+    private static final String QUEUE_CAPACITY_PREFERENCE = "SystemUnlockQueueCapacity";
+    private static final String PROMPT_HOST_PREFERENCE = "SystemUnlockPromptHost";
+    private static final String PROMPT_HOST_FRAGMENT = "fragment";
+    private static final String PREWARM_PREFERENCE = "SystemUnlockPrewarm";
+    private static final String KEY_STORE_PREFERENCE = "SystemUnlockKeyStore";
+    private static final String KEY_STORE_SOFTWARE = "software";
+    private static final String SECRET_CACHE_BYTES_PREFERENCE = "SystemUnlockSecretCacheBytes";
+    private static final String SECRET_CACHE_SECONDS_PREFERENCE = "SystemUnlockSecretCacheSeconds";
 
     private String applicationLabel;
-    private CallbackContext mCallbackContext = null;
+    private boolean applicationLabelLoaded = false;
+
+    private final AtomicInteger mNextRequestId = new AtomicInteger();
+    private final Map<Integer, Request> mRequests = new ConcurrentHashMap<>();
+
+    // Interactive prompts are shown one at a time, in the order requested
+    private final ArrayDeque<Runnable> mPendingPrompts = new ArrayDeque<>();
+    private boolean mPromptActive = false;
+
+    private CryptographyManagerImpl mCryptographyManager;
+    private PluginExecutor mExecutor;
+    private boolean mUsePromptFragment;
+    private BroadcastReceiver mScreenOffReceiver = null;
+
+    // Result of the last BiometricManager.canAuthenticate check, or null if
+    // it has to be checked again
+    private volatile Integer mAuthenticationStatus = null;
+
+    // Milliseconds taken by each prewarm step, once prewarming has finished
+    private volatile JSONObject mPrewarmTimings = null;
 
-    private CryptographyManager mCryptographyManager;
+    private int mActivityRequestId;
+    private BiometricActivityType mActivityType;
+    private long mActivityStart;
 
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
 
-        applicationLabel = getApplicationLabel(cordova.getActivity());
+        if (KEY_STORE_SOFTWARE.equalsIgnoreCase(
+                preferences.getString(KEY_STORE_PREFERENCE, "android"))) {
+            CryptographyManagerImpl.setBackend(new SoftwareKeyStoreBackend());
+        }
+        mCryptographyManager = CryptographyManagerImpl.getInstance();
+
+        mExecutor = new PluginExecutor(
+            preferences.getInteger(PARALLELISM_PREFERENCE, PluginExecutor.DEFAULT_PARALLELISM),
+            preferences.getInteger(QUEUE_CAPACITY_PREFERENCE, PluginExecutor.DEFAULT_QUEUE_CAPACITY)
+        );
+
+        mUsePromptFragment = PROMPT_HOST_FRAGMENT.equalsIgnoreCase(
+                preferences.getString(PROMPT_HOST_PREFERENCE, "activity"))
+            && cordova.getActivity() instanceof FragmentActivity;
+        if (mUsePromptFragment) {
+            // Attach the fragment up front so it's ready by the first prompt
+            cordova.getActivity().runOnUiThread(() ->
+                PromptFragment.attach((FragmentActivity) cordova.getActivity()));
+        }
 
-        mCryptographyManager = new CryptographyManagerImpl();
+        SecretCache.configure(
+            preferences.getInteger(SECRET_CACHE_BYTES_PREFERENCE, 0),
+            preferences.getInteger(SECRET_CACHE_SECONDS_PREFERENCE, SecretCache.DEFAULT_TTL_SECONDS)
+        );
+        if (SecretCache.isEnabled()) {
+            // Cached secrets mustn't outlive the device being locked
+            mScreenOffReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    SecretCache.clear();
+                }
+            };
+            cordova.getActivity().getApplicationContext()
+                .registerReceiver(mScreenOffReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF));
+        }
+
+        if (preferences.getBoolean(PREWARM_PREFERENCE, false)) {
+            mExecutor.execute(this::prewarm);
+        }
     }
 
-    public boolean execute(final String action, JSONArray args, CallbackContext callbackContext) {
-        this.mCallbackContext = callbackContext;
+    private static final class Request {
+        final CallbackContext callbackContext;
+        final long start = PluginMetrics.start();
 
-        // All methods require access to security checks
-        PluginError error = canAuthenticate();
-        if (error != null) {
-            sendError(error);
-            return true;
+        Request(CallbackContext callbackContext) {
+            this.callbackContext = callbackContext;
+        }
+    }
+
+    /**
+     * Work on the executor for a request, which has to be failed if the work
+     * is dropped before it runs.
+     */
+    private static final class RequestTask implements Runnable {
+        final int requestId;
+        private final Runnable task;
+
+        RequestTask(int requestId, Runnable task) {
+            this.requestId = requestId;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private interface PrewarmStep {
+        void run() throws Exception;
+    }
+
+    /**
+     * Does the slow first-time setup of everything a secret operation uses,
+     * so the first call after a cold start doesn't have to.
+     */
+    private void prewarm() {
+        Context context = cordova.getActivity().getApplicationContext();
+        long start = SystemClock.elapsedRealtimeNanos();
+        JSONObject timings = new JSONObject();
+        prewarm(timings, "applicationLabel", this::getApplicationLabel);
+        prewarm(timings, "keyStore", () -> mCryptographyManager.getBackend().prewarm());
+        prewarm(timings, "biometricManager", this::canAuthenticate);
+        prewarm(timings, "secretStore", () -> SecretStore.getInstance(context));
+        prewarm(timings, "secretIndex", () -> SecretIndex.getInstance(context));
+        try {
+            timings.put("total", (SystemClock.elapsedRealtimeNanos() - start) / 1e6);
+        } catch (JSONException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        Log.d(TAG, "Prewarmed in " + timings);
+        mPrewarmTimings = timings;
+    }
+
+    private void prewarm(JSONObject timings, String name, PrewarmStep step) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            step.run();
+            timings.put(name, (SystemClock.elapsedRealtimeNanos() - start) / 1e6);
+        } catch (Exception e) {
+            // The call itself will run into the same problem and report it
+            Log.w(TAG, "Prewarming " + name + " failed", e);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        for (Runnable task : mExecutor.shutdown()) {
+            if (task instanceof RequestTask) {
+                sendError(((RequestTask) task).requestId,
+                    PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), "SystemUnlock was destroyed");
+            }
         }
+        SessionManager.endAll();
+        if (mScreenOffReceiver != null) {
+            cordova.getActivity().getApplicationContext().unregisterReceiver(mScreenOffReceiver);
+            mScreenOffReceiver = null;
+        }
+        SecretCache.clear();
+        super.onDestroy();
+    }
 
-        // All other methods perform a challenge and/or action, with shared args
+    public boolean execute(final String action, JSONArray args, CallbackContext callbackContext) {
+        // All methods but getMetrics perform a challenge and/or action, with shared args
         BiometricActivityType type = BiometricActivityType.fromJsonString(action);
-        if (type == null) {
+        if (type == null && !GET_METRICS.equals(action)) {
             // Unknown action
             return false;
         }
 
-        PromptInfo parsedArgs = new PromptInfo.Builder(applicationLabel)
+        // Each call has its own callback, so calls can be in flight together
+        int requestId = mNextRequestId.incrementAndGet();
+        mRequests.put(requestId, new Request(callbackContext));
+
+        if (type == null) {
+            getMetrics(requestId, args);
+            return true;
+        }
+
+        // Everything else runs in the background so the bridge isn't blocked
+        if (!mExecutor.execute(new RequestTask(requestId, () -> {
+            try {
+                runAction(requestId, type, args);
+            } catch (Exception e) {
+                // Or the call would never settle
+                Log.e(TAG, e.getMessage(), e);
+                sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), e.getMessage());
+            }
+        }))) {
+            sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), "SystemUnlock is busy");
+        }
+        return true;
+    }
+
+    private void runAction(int requestId, BiometricActivityType type, JSONArray args) {
+        PromptInfo parsedArgs = new PromptInfo.Builder(getApplicationLabel())
             .parseArgs(args, type)
             .build();
 
+        switch (type) {
+            case LIST_SECRETS:
+                // Answered from the index alone, so never needs authentication
+                listSecrets(requestId, parsedArgs);
+                return;
+            case HAS_SECRETS:
+                hasSecrets(requestId, parsedArgs);
+                return;
+        }
+
+        if (type == BiometricActivityType.END_SESSION) {
+            // Ending a session never needs authentication
+            if (parsedArgs.getSessionToken() != null) {
+                SessionManager.end(parsedArgs.getSessionToken());
+            }
+            sendSuccess(requestId, "biometric_success");
+            return;
+        }
+
+        // All methods require access to security checks, unless skipping them
+        // was asked for by a call which can't prompt anyway
+        boolean mayPrompt = type != BiometricActivityType.HAS_SECRET
+            && !parsedArgs.getInteractionNotAllowed();
+        if (type == BiometricActivityType.IS_AVAILABLE
+                || mayPrompt || !parsedArgs.getSkipAuthenticationCheck()) {
+            PluginError error = canAuthenticate();
+            if (error != null) {
+                sendError(requestId, error);
+                return;
+            }
+        }
+
         switch(type) {
             case IS_AVAILABLE:
                 // canAuthenticate above already did the check
                 if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
-                    sendSuccess("biometric");
+                    sendSuccess(requestId, "biometric");
                 } else {
-                    sendSuccess("biometric+passcode");
+                    sendSuccess(requestId, "biometric+passcode");
                 }
-                return true;
+                return;
             case HAS_SECRET:
                 // Checking for existence is always non-interactive
-                hasSecret(parsedArgs);
-                return true;
-            case SET_SECRET:
-                if (parsedArgs.getSecret() == null) {
-                    sendError(PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
-                    return true;
-                }
-                break;
+                hasSecret(requestId, parsedArgs);
+                return;
         }
 
-        runBiometricActivity(parsedArgs);
-        return true;
+        SecretOperations operations = new SecretOperations(
+            cordova.getActivity().getApplicationContext(), mCryptographyManager, parsedArgs);
+        boolean boundToPrompt;
+        try {
+            operations.checkArgs();
+            boundToPrompt = operations.isBoundToPrompt();
+        } catch (CryptoException e) {
+            sendError(requestId, e.getError());
+            return;
+        }
+
+        // Per-operation keys can't be used until the prompt authenticates them
+        if (!boundToPrompt && operations.canRunWithoutPrompt()
+                && runWithoutPrompt(requestId, operations, parsedArgs)) {
+            return;
+        }
+
+        if (parsedArgs.getInteractionNotAllowed()) {
+            // Only a prompt could let the operation go ahead, and the call can't show one
+            sendError(requestId, PluginError.BIOMETRIC_AUTHENTICATION_REQUIRED);
+            return;
+        }
+
+        if (mUsePromptFragment) {
+            runPromptFragment(requestId, parsedArgs, operations, boundToPrompt);
+        } else {
+            runBiometricActivity(requestId, parsedArgs);
+        }
     }
 
+    /**
+     * Tries the operation in-process, which succeeds without starting
+     * BiometricActivity while the keys are still usable without authenticating.
+     * Returns false if the user has to be prompted after all.
+     */
+    private boolean runWithoutPrompt(int requestId, SecretOperations operations, PromptInfo promptInfo) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            PluginResult result = operations.run(false);
+            logLatency(promptInfo.getType(), "in-process", start);
+            sendResult(requestId, result);
+            return true;
+        } catch (CryptoException e) {
+            if (e instanceof KeyInvalidatedException) {
+                // The enrollments may have changed
+                mAuthenticationStatus = null;
+            }
+            if (SecretOperations.needsAuthentication(e) && !promptInfo.getInteractionNotAllowed()) {
+                return false;
+            }
+            logLatency(promptInfo.getType(), "in-process", start);
+            if (SecretOperations.needsAuthentication(e)) {
+                sendError(requestId, PluginError.BIOMETRIC_AUTHENTICATION_REQUIRED);
+            } else {
+                sendError(requestId, e.getError().getValue(), e.getMessage());
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+            sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), e.getMessage());
+            return true;
+        }
+    }
+
+    private void logLatency(BiometricActivityType type, String path, long start) {
+        Log.d(TAG, type.getJsonString() + " completed " + path + " in "
+            + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
+    }
+
+    private void getMetrics(int requestId, JSONArray args) {
+        boolean reset = new Args(args).getBoolean("reset", false);
+        try {
+            JSONObject metrics = new JSONObject();
+            metrics.put("executor", mExecutor.getMetrics());
+            JSONObject requests = new JSONObject();
+            // Not counting the getMetrics call itself
+            requests.put("inFlight", mRequests.size() - 1);
+            synchronized (mPendingPrompts) {
+                requests.put("pendingPrompts", mPendingPrompts.size());
+            }
+            metrics.put("requests", requests);
+            if (mPrewarmTimings != null) {
+                metrics.put("prewarm", mPrewarmTimings);
+            }
+            metrics.put("latency", PluginMetrics.toJson());
+            metrics.put("secretCache", SecretCache.toJson());
+            if (reset) {
+                PluginMetrics.reset();
+            }
+            sendSuccess(requestId, metrics);
+        } catch (JSONException e) {
+            Log.e(TAG, e.getMessage(), e);
+            sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR);
+        }
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        super.onResume(multitasking);
+        // Enrollments and the screen lock can only change while the app is in
+        // the background, in the system settings
+        mAuthenticationStatus = null;
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        // Also reached while BiometricActivity is in front, which only costs
+        // the next read of each cached secret a decrypt
+        SecretCache.clear();
+    }
+
+    /**
+     * Checks whether the user can authenticate, answering from the result of
+     * the last check while it can't have changed.
+     */
     private PluginError canAuthenticate() {
+        Integer cached = mAuthenticationStatus;
         int error;
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
-            error = BiometricManager.from(cordova.getContext())
-                .canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG);
+        if (cached != null) {
+            error = cached;
         } else {
-            error = BiometricManager.from(cordova.getContext())
-                .canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG
-                    | BiometricManager.Authenticators.DEVICE_CREDENTIAL);
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+                error = BiometricManager.from(cordova.getContext())
+                    .canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG);
+            } else {
+                error = BiometricManager.from(cordova.getContext())
+                    .canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG
+                        | BiometricManager.Authenticators.DEVICE_CREDENTIAL);
+            }
+            // Transient failures are checked again on the next call
+            if (error != BiometricManager.BIOMETRIC_ERROR_HW_UNAVAILABLE
+                    && error != BiometricManager.BIOMETRIC_STATUS_UNKNOWN) {
+                mAuthenticationStatus = error;
+            }
         }
         switch (error) {
             case BiometricManager.BIOMETRIC_SUCCESS:
@@ -111,36 +435,169 @@ public class SystemUnlock extends CordovaPlugin {
         }
     }
 
-    private void hasSecret(PromptInfo promptInfo) {
+    private void listSecrets(int requestId, PromptInfo promptInfo) {
+        try {
+            List<SecretIndex.Entry> entries = SecretIndex
+                .getInstance(cordova.getActivity().getApplicationContext())
+                .list(promptInfo.getPrefix());
+            Collections.sort(entries, (a, b) -> a.secretName.compareTo(b.secretName));
+            JSONArray result = new JSONArray();
+            for (SecretIndex.Entry entry : entries) {
+                result.put(entry.toJson());
+            }
+            sendResult(requestId, new PluginResult(PluginResult.Status.OK, result));
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+            sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), e.getMessage());
+        }
+    }
+
+    private void hasSecrets(int requestId, PromptInfo promptInfo) {
+        if (promptInfo.getSecretNames() == null) {
+            sendError(requestId, PluginError.BIOMETRIC_ARGS_PARSING_FAILED);
+            return;
+        }
         try {
-            byte[] initializationVector = EncryptedData
-                .loadInitializationVector(
-                        promptInfo.getSecretName(),
-                        cordova.getActivity().getApplicationContext()
-                );
+            SecretIndex index = SecretIndex.getInstance(cordova.getActivity().getApplicationContext());
+            JSONObject result = new JSONObject();
+            for (String secretName : promptInfo.getSecretNames()) {
+                result.put(secretName, index.contains(secretName));
+            }
+            sendSuccess(requestId, result);
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+            sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), e.getMessage());
+        }
+    }
+
+    private void hasSecret(int requestId, PromptInfo promptInfo) {
+        try {
+            Context context = cordova.getActivity().getApplicationContext();
+            String keyName = promptInfo.getSecretName();
+            byte[] initializationVector;
+            if (mCryptographyManager.hasKey(keyName)) {
+                initializationVector = EncryptedData.loadInitializationVector(keyName, context);
+            } else {
+                // Envelope secrets are checked through their keyring's master key
+                byte[] storedIv = EncryptedData.exists(keyName, context)
+                    ? EncryptedData.loadInitializationVector(keyName, context)
+                    : null;
+                if (storedIv == null || !EnvelopeKeyring.isEnvelope(storedIv)
+                        || !mCryptographyManager.hasKey(EnvelopeKeyring.getMasterKeyName(storedIv))) {
+                    sendError(requestId, PluginError.BIOMETRIC_NO_SECRET_FOUND);
+                    return;
+                }
+                keyName = EnvelopeKeyring.getMasterKeyName(storedIv);
+                initializationVector = EncryptedData.loadInitializationVector(
+                    EnvelopeKeyring.getKeyringName(storedIv), context);
+            }
             Cipher cipher = mCryptographyManager
-                .getInitializedCipherForDecryption(promptInfo.getSecretName(), initializationVector);
-            sendSuccess(true);
+                .getInitializedCipherForDecryption(keyName, initializationVector);
+            sendSuccess(requestId, true);
         } catch (CryptoException e) {
             if (e.getCause() instanceof UserNotAuthenticatedException) {
-                sendSuccess(true);
+                sendSuccess(requestId, true);
+                return;
             }
-            sendError(e.getError());
+            sendError(requestId, e.getError());
         } catch (Exception e) {
-            sendError(PluginError.BIOMETRIC_UNKNOWN_ERROR);
+            sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR);
         }
     }
 
-    private void runBiometricActivity(PromptInfo promptInfo) {
-        cordova.getActivity().runOnUiThread(() -> {
-            Intent intent = new Intent(cordova.getActivity().getApplicationContext(), BiometricActivity.class);
-            intent.putExtras(promptInfo.getBundle());
-            this.cordova.startActivityForResult(this, intent, REQUEST_CODE_BIOMETRIC);
+    private void runBiometricActivity(int requestId, PromptInfo promptInfo) {
+        sendNoResult(requestId);
+        showPrompt(() -> {
+            mActivityRequestId = requestId;
+            mActivityType = promptInfo.getType();
+            mActivityStart = SystemClock.elapsedRealtimeNanos();
+            cordova.getActivity().runOnUiThread(() -> {
+                Intent intent = BiometricActivity.createIntent(
+                    cordova.getActivity().getApplicationContext(), requestId, promptInfo, mExecutor);
+                intent.putExtra(BiometricActivity.LAUNCHED_AT_EXTRA, PluginMetrics.start());
+                this.cordova.startActivityForResult(this, intent, REQUEST_CODE_BIOMETRIC);
+            });
         });
+    }
+
+    /**
+     * Prompts from the headless fragment in the Cordova activity, then runs
+     * the operation in the background once the user has authenticated.
+     */
+    private void runPromptFragment(int requestId, PromptInfo promptInfo,
+            SecretOperations operations, boolean boundToPrompt) {
+        BiometricActivityType type = promptInfo.getType();
+        long start = SystemClock.elapsedRealtimeNanos();
+        Cipher cipher = null;
+        if (boundToPrompt) {
+            try {
+                cipher = operations.prepareCipher();
+            } catch (CryptoException e) {
+                sendError(requestId, e.getError().getValue(), e.getMessage());
+                return;
+            }
+        }
+        final Cipher promptCipher = cipher;
+        SecretPromptCallback callback = new SecretPromptCallback() {
+            @Override
+            void onAuthenticated(Cipher authenticatedCipher) {
+                onPromptFinished();
+                Runnable run = new RequestTask(requestId, () -> {
+                    try {
+                        PluginResult result = operations.run(true, authenticatedCipher);
+                        logLatency(type, "through PromptFragment", start);
+                        sendResult(requestId, result);
+                    } catch (CryptoException e) {
+                        sendError(requestId, e.getError().getValue(), e.getMessage());
+                    } catch (Exception e) {
+                        Log.e(TAG, e.getMessage(), e);
+                        sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), e.getMessage());
+                    }
+                });
+                if (!mExecutor.execute(run)) {
+                    run.run();
+                }
+            }
+
+            @Override
+            void onError(int code, String message) {
+                logLatency(type, "through PromptFragment", start);
+                sendError(requestId, code, message);
+                onPromptFinished();
+            }
+        };
+
+        sendNoResult(requestId);
+        showPrompt(() -> cordova.getActivity().runOnUiThread(() ->
+            PromptFragment.attach((FragmentActivity) cordova.getActivity())
+                .authenticate(promptInfo, promptCipher, callback)));
+    }
+
+    /**
+     * Shows the prompt now if no other prompt is showing, or else once the
+     * prompts before it have finished.
+     */
+    private void showPrompt(Runnable prompt) {
+        synchronized (mPendingPrompts) {
+            if (mPromptActive) {
+                mPendingPrompts.add(prompt);
+                return;
+            }
+            mPromptActive = true;
+        }
+        prompt.run();
+    }
 
-        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
-        pluginResult.setKeepCallback(true);
-        this.mCallbackContext.sendPluginResult(pluginResult);
+    private void onPromptFinished() {
+        Runnable next;
+        synchronized (mPendingPrompts) {
+            next = mPendingPrompts.poll();
+            if (next == null) {
+                mPromptActive = false;
+                return;
+            }
+        }
+        next.run();
     }
 
     @Override
@@ -149,41 +606,51 @@ public class SystemUnlock extends CordovaPlugin {
         if (requestCode != REQUEST_CODE_BIOMETRIC) {
             return;
         }
+        int requestId = mActivityRequestId;
+        logLatency(mActivityType, "through BiometricActivity", mActivityStart);
+        long finishedAt = intent != null
+            ? intent.getLongExtra(BiometricActivity.FINISHED_AT_EXTRA, 0)
+            : 0;
+        if (finishedAt != 0) {
+            PluginMetrics.record(PluginMetrics.Phase.RESULT_DELIVERY, finishedAt);
+        }
+        PluginResult result = BiometricActivity.takeResult(requestId);
         if (resultCode != Activity.RESULT_OK) {
-            sendError(intent);
-            return;
+            sendError(requestId, intent);
+        } else if (result == null) {
+            sendError(requestId, PluginError.BIOMETRIC_UNKNOWN_ERROR.getValue(), "The result was lost");
+        } else {
+            sendResult(requestId, result);
         }
-        sendSuccess(intent);
+        onPromptFinished();
     }
 
-    private void sendSuccess(Intent intent) {
-        if (intent != null && intent.getExtras() != null) {
-            sendSuccess(intent.getExtras().getString(PromptInfo.SECRET_EXTRA));
-        } else {
-            sendSuccess("biometric_success");
-        }
+    private void sendSuccess(int requestId, String message) {
+        sendResult(requestId, new PluginResult(PluginResult.Status.OK, message));
     }
 
-    private void sendSuccess(String message) {
-        cordova.getActivity().runOnUiThread(() ->
-            this.mCallbackContext.success(message));
+    private void sendSuccess(int requestId, JSONObject result) {
+        sendResult(requestId, new PluginResult(PluginResult.Status.OK, result));
     }
 
-    private void sendSuccess(boolean result) {
-        cordova.getActivity().runOnUiThread(() ->
-            this.mCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result)));
+    private void sendSuccess(int requestId, byte[] result) {
+        sendResult(requestId, new PluginResult(PluginResult.Status.OK, result));
     }
 
-    private void sendError(Intent intent) {
+    private void sendSuccess(int requestId, boolean result) {
+        sendResult(requestId, new PluginResult(PluginResult.Status.OK, result));
+    }
+
+    private void sendError(int requestId, Intent intent) {
         if (intent != null) {
             Bundle extras = intent.getExtras();
-            sendError(extras.getInt("code"), extras.getString("message"));
+            sendError(requestId, extras.getInt("code"), extras.getString("message"));
         } else {
-            sendError(PluginError.BIOMETRIC_DISMISSED);
+            sendError(requestId, PluginError.BIOMETRIC_DISMISSED);
         }
     }
 
-    private void sendError(int code, String message) {
+    private void sendError(int requestId, int code, String message) {
         JSONObject resultJson = new JSONObject();
         try {
             resultJson.put("code", code);
@@ -191,15 +658,52 @@ public class SystemUnlock extends CordovaPlugin {
 
             PluginResult result = new PluginResult(PluginResult.Status.ERROR, resultJson);
             result.setKeepCallback(true);
-            cordova.getActivity().runOnUiThread(() ->
-                SystemUnlock.this.mCallbackContext.sendPluginResult(result));
+            sendResult(requestId, result);
         } catch (JSONException e) {
             Log.e(TAG, e.getMessage(), e);
         }
     }
 
-    private void sendError(PluginError error) {
-        sendError(error.getValue(), error.getMessage());
+    private void sendError(int requestId, PluginError error) {
+        sendError(requestId, error.getValue(), error.getMessage());
+    }
+
+    /**
+     * Tells the request's caller the result will come later, after a prompt.
+     */
+    private void sendNoResult(int requestId) {
+        Request request = mRequests.get(requestId);
+        if (request != null) {
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+            pluginResult.setKeepCallback(true);
+            request.callbackContext.sendPluginResult(pluginResult);
+        }
+    }
+
+    /**
+     * Sends the final result of a request, which is then no longer in flight.
+     */
+    private void sendResult(int requestId, PluginResult result) {
+        Request request = mRequests.remove(requestId);
+        if (request == null) {
+            Log.w(TAG, "No request " + requestId + " to send a result to");
+            return;
+        }
+        // The bridge queues results for the WebView itself and can be called
+        // from any thread, so the result is sent from whichever thread has it
+        // rather than waiting behind UI work for a turn on the main thread
+        long start = PluginMetrics.start();
+        request.callbackContext.sendPluginResult(result);
+        PluginMetrics.record(PluginMetrics.Phase.BRIDGE_HANDOFF, start);
+        PluginMetrics.record(PluginMetrics.Phase.CALL, request.start);
+    }
+
+    private synchronized String getApplicationLabel() {
+        if (!applicationLabelLoaded) {
+            applicationLabel = getApplicationLabel(cordova.getActivity());
+            applicationLabelLoaded = true;
+        }
+        return applicationLabel;
     }
 
     private String getApplicationLabel(Context context) {
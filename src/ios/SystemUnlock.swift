@@ -257,7 +257,13 @@ let errorCodeMapping = [
     ) {
         let options = command.arguments[0] as! [String: Any]?
 
-        guard let secretStr = options?["secret"] as! String? else {
+        // Binary secrets arrive as a separate argument after the options
+        var secretData: Data
+        if command.arguments.count > 1, let data = command.arguments[1] as? Data {
+            secretData = data
+        } else if let secretStr = options?["secret"] as! String? {
+            secretData = secretStr.data(using: String.Encoding.utf8)!
+        } else {
             return
         }
 
@@ -277,7 +283,7 @@ let errorCodeMapping = [
             try? secret.delete(context: context)
 
             try secret.save(
-                secretStr,
+                secretData,
                 scope: scope,
                 lockBehavior: lockBehavior,
                 service: secretService,
@@ -388,11 +394,19 @@ let errorCodeMapping = [
         let options = command.arguments[0] as! [String: Any]?
 
         var secret = makeSecret(options: options)
+        let binary = options?["binary"] as! Bool? ?? false
 
         var pluginResult: CDVPluginResult
         do {
             let result = try secret.load(context: context)
-            pluginResult = CDVPluginResult(status: CDVCommandStatus_OK, messageAs: result)
+            if binary {
+                pluginResult = CDVPluginResult(status: CDVCommandStatus_OK, messageAsArrayBuffer: result)
+            } else {
+                guard let password = String(data: result, encoding: String.Encoding.utf8) else {
+                    throw KeychainError(status: errSecInternalError)
+                }
+                pluginResult = CDVPluginResult(status: CDVCommandStatus_OK, messageAs: password)
+            }
         } catch {
             var code = PluginError.BIOMETRIC_UNKNOWN_ERROR.rawValue
             var message = error.localizedDescription
@@ -558,7 +572,7 @@ struct Secret {
     }
 
     func save(
-        _ secret: String,
+        _ secret: Data,
         scope: String,
         lockBehavior: String,
         service: String?,
@@ -566,7 +580,7 @@ struct Secret {
         comment: String?,
         context: LAContext
     ) throws {
-        let password = secret.data(using: String.Encoding.utf8)!
+        let password = secret
 
         // Build the query for use in the add operation.
         var query: [CFString: Any]
@@ -643,7 +657,7 @@ struct Secret {
         return true
     }
 
-    func load(context: LAContext) throws -> String {
+    func load(context: LAContext) throws -> Data {
         var query: [CFString: Any] = [
             kSecClass: kSecClassGenericPassword,
             kSecAttrAccount: keyName,
@@ -662,13 +676,11 @@ struct Secret {
             throw KeychainError(status: status)
         }
 
-        guard let passwordData = result as? Data,
-            let password = String(data: passwordData, encoding: String.Encoding.utf8)
-        else {
+        guard let passwordData = result as? Data else {
             throw KeychainError(status: errSecInternalError)
         }
 
-        return password
+        return passwordData
     }
 
     func delete(context: LAContext) throws {
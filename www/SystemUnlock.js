@@ -27,10 +27,13 @@ class SystemUnlock {
     this.BIOMETRIC_LOCKED_OUT = -111;
     this.BIOMETRIC_LOCKED_OUT_PERMANENT = -112;
     this.BIOMETRIC_NO_SECRET_FOUND = -113;
+    this.BIOMETRIC_ARGS_PARSING_FAILED = -115;
+    this.BIOMETRIC_SESSION_EXPIRED = -116;
+    this.BIOMETRIC_AUTHENTICATION_REQUIRED = -117;
 
     this.debugOn = false;
 
-    this.execNative = serialize((name, options) => {
+    const exec = (name, options, data) => {
       return new Promise((resolve, reject) => {
         this.debugOn && console.log(`Running native SystemUnlock.${name}`);
         cordova.exec(
@@ -73,10 +76,16 @@ class SystemUnlock {
           },
           'SystemUnlock',
           name,
-          [options],
+          // Binary data has to be a top-level argument to cross the bridge
+          data === undefined ? [options] : [options, data],
         );
       });
-    });
+    };
+
+    // Android tracks each call separately, shows one prompt at a time and
+    // locks each secret while its key and record are in use, so only the
+    // other platforms need calls queued here
+    this.execNative = cordova.platformId === 'android' ? exec : serialize(exec);
   }
 
   /** @param {boolean} enable */
@@ -92,6 +101,19 @@ class SystemUnlock {
     return await this.execNative('isAvailable');
   }
 
+  /**
+   * (Android only) Returns internal performance metrics of the native plugin.
+   * `latency` has a histogram for each phase of a call, where bucket `i`
+   * counts durations from 2^i up to 2^(i+1) microseconds.
+   *
+   * @param {Object} [options]
+   * @param {boolean} [options.reset=false] Clear the latency histograms once they've been read
+   * @returns {Promise<Object>}
+   */
+  async getMetrics(options) {
+    return await this.execNative('getMetrics', options);
+  }
+
   /**
    * @returns {Promise<boolean>}
    */
@@ -124,13 +146,18 @@ class SystemUnlock {
    * @param {string} [options.secretService]
    * @param {string} [options.secretLabel]
    * @param {string} [options.secretComment]
-   * @param {string} options.secret
+   * @param {string | ArrayBuffer | ArrayBufferView} options.secret
    * @param {'sync' | 'backup' | 'oneDevice' | 'activeSystemLock' | 'oneBiometric'} [options.scope='activeSystemLock']
    * @param {'lockWithDevice' | 'lockAfterUse' | 'lockAfterUseBiometricOnly'} [options.lockBehavior='lockAfterUse']
    * @param {number} [options.androidAutoLockTimeSeconds=1209600]
-   * @param {boolean} [options.interactionNotAllowed=false]
+   * @param {boolean} [options.androidEnvelope=false] (Android only) Encrypt the secret under a data key kept in one keyring per scope and lock behavior, so many secrets share a single keystore key. Ignored with `chunked` or `androidPerOperationAuth`.
+   * @param {boolean} [options.androidPerOperationAuth=false] (Android only) With `lockAfterUse`, bind each use of the key to its own prompt, instead of allowing use for a few seconds after authenticating. The prompt then authenticates the cipher itself, so it is set up only once.
+   * @param {boolean} [options.interactionNotAllowed=false] Never prompt. On Android, calls which would have to prompt fail with `BIOMETRIC_AUTHENTICATION_REQUIRED`
+   * @param {boolean} [options.skipAuthenticationCheck=false] (Android only) With `interactionNotAllowed`, don't first check that the user can authenticate
    * @param {boolean} [options.confirmationRequired=true]
    * @param {'start' | 'continue'} [options.batch]
+   * @param {string} [options.sessionToken] (Android only) Token from `beginSession`, to run without prompting while the session lasts
+   * @param {boolean} [options.chunked=false] (Android only) Store the secret in separately encrypted chunks, for large secrets which will be read by range
    * @param {string} [options.title]
    * @param {string} [options.subtitle]
    * @param {string} [options.description]
@@ -139,42 +166,235 @@ class SystemUnlock {
    * @returns {Promise<void>}
    */
   async setSecret(options) {
+    const { secret } = options;
+    if (secret instanceof ArrayBuffer) {
+      return await this.execNative(
+        'setSecret',
+        { ...options, secret: undefined },
+        secret,
+      );
+    }
+    if (ArrayBuffer.isView(secret)) {
+      const buffer =
+        secret.byteOffset === 0 &&
+        secret.byteLength === secret.buffer.byteLength
+          ? secret.buffer
+          : secret.buffer.slice(
+              secret.byteOffset,
+              secret.byteOffset + secret.byteLength,
+            );
+      return await this.execNative(
+        'setSecret',
+        { ...options, secret: undefined },
+        buffer,
+      );
+    }
     return await this.execNative('setSecret', options);
   }
 
+  /**
+   * Stores several secrets with at most one authentication prompt. All of the
+   * secrets share the scope and lock options given.
+   *
+   * @param {Object} options
+   * @param {{secretName: string, secret: string}[]} options.secrets
+   * @param {'sync' | 'backup' | 'oneDevice' | 'activeSystemLock' | 'oneBiometric'} [options.scope='activeSystemLock']
+   * @param {'lockWithDevice' | 'lockAfterUse' | 'lockAfterUseBiometricOnly'} [options.lockBehavior='lockAfterUse']
+   * @param {number} [options.androidAutoLockTimeSeconds=1209600]
+   * @param {boolean} [options.androidEnvelope=false] (Android only) Encrypt the secrets under data keys kept in one keyring per scope and lock behavior, so they share a single keystore key
+   * @param {boolean} [options.interactionNotAllowed=false] Never prompt. On Android, calls which would have to prompt fail with `BIOMETRIC_AUTHENTICATION_REQUIRED`
+   * @param {boolean} [options.skipAuthenticationCheck=false] (Android only) With `interactionNotAllowed`, don't first check that the user can authenticate
+   * @param {boolean} [options.confirmationRequired=true]
+   * @param {'start' | 'continue'} [options.batch]
+   * @param {string} [options.sessionToken] (Android only) Token from `beginSession`, to run without prompting while the session lasts
+   * @param {string} [options.title]
+   * @param {string} [options.subtitle]
+   * @param {string} [options.description]
+   * @param {string} [options.fallbackButtonTitle]
+   * @param {string} [options.cancelButtonTitle]
+   * @returns {Promise<void>}
+   */
+  async setSecrets(options) {
+    if (cordova.platformId === 'android') {
+      return await this.execNative('setSecrets', options);
+    }
+
+    // Elsewhere, store one by one reusing the authentication of the first
+    const { secrets = [], ...rest } = options;
+    for (let i = 0; i < secrets.length; i++) {
+      await this.setSecret({
+        ...rest,
+        secretName: secrets[i].secretName,
+        secret: secrets[i].secret,
+        batch: i === 0 ? rest.batch || 'start' : 'continue',
+      });
+    }
+  }
+
   /**
    * @param {Object} options
    * @param {string} [options.secretName="__aio_key"]
+   * @param {boolean} [options.skipAuthenticationCheck=false] (Android only) Don't first check that the user can authenticate
    * @returns {Promise<boolean>}
    */
   async hasSecret(options) {
     return await this.execNative('hasSecret', options);
   }
 
+  /**
+   * Checks which of several secrets are stored. On Android this is answered
+   * from the plugin's index of stored secrets, without the keystore, so a
+   * secret whose key has since been invalidated is still reported.
+   *
+   * @param {Object} options
+   * @param {string[]} options.secretNames
+   * @returns {Promise<Object<string, boolean>>}
+   */
+  async hasSecrets(options) {
+    if (cordova.platformId === 'android') {
+      return await this.execNative('hasSecrets', options);
+    }
+
+    // Elsewhere, check one by one
+    const { secretNames = [], ...rest } = options;
+    const result = {};
+    for (const secretName of secretNames) {
+      try {
+        result[secretName] = await this.hasSecret({ ...rest, secretName });
+      } catch (error) {
+        if (error.code !== this.BIOMETRIC_NO_SECRET_FOUND) {
+          throw error;
+        }
+        result[secretName] = false;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * (Android only) Lists the stored secrets, sorted by name. `scope` and
+   * `lockBehavior` are missing, and `size` and the times are 0, for secrets
+   * stored by versions of the plugin from before the list was kept.
+   *
+   * @param {Object} [options]
+   * @param {string} [options.prefix] Only list secrets whose names start with this
+   * @returns {Promise<{secretName: string, scope?: string, lockBehavior?: string, size: number, createdAt: number, updatedAt: number}[]>} `size` is in bytes, and the times are in milliseconds since the epoch
+   */
+  async listSecrets(options) {
+    return await this.execNative('listSecrets', options);
+  }
+
   /**
    * @param {Object} options
    * @param {string} [options.secretName="__aio_key"]
-   * @param {boolean} [options.interactionNotAllowed=false]
+   * @param {boolean} [options.interactionNotAllowed=false] Never prompt. On Android, calls which would have to prompt fail with `BIOMETRIC_AUTHENTICATION_REQUIRED`
+   * @param {boolean} [options.skipAuthenticationCheck=false] (Android only) With `interactionNotAllowed`, don't first check that the user can authenticate
    * @param {boolean} [options.confirmationRequired=true]
    * @param {'start' | 'continue'} [options.batch]
+   * @param {string} [options.sessionToken] (Android only) Token from `beginSession`, to run without prompting while the session lasts
    * @param {string} [options.title]
    * @param {string} [options.subtitle]
    * @param {string} [options.description]
    * @param {string} [options.fallbackButtonTitle]
    * @param {string} [options.cancelButtonTitle]
-   * @returns {Promise<string>}
+   * @param {boolean} [options.binary=false] Return the secret as an ArrayBuffer instead of a string
+   * @param {number} [options.offset] (Android only) Start of the byte range of the UTF-8 encoded secret to read
+   * @param {number} [options.length] (Android only) Length of the byte range to read, or the rest of the secret if not given
+   * @returns {Promise<string | ArrayBuffer>} The secret, as an ArrayBuffer if `binary` was set, or the requested byte range of it if `offset` or `length` was given
    */
   async getSecret(options) {
     return await this.execNative('getSecret', options);
   }
 
+  /**
+   * Reads several secrets with at most one authentication prompt. Secrets
+   * which can't be read are reported in `errors` instead of failing the call.
+   * On Android, with `interactionNotAllowed`, secrets which need the user to
+   * authenticate are reported with `BIOMETRIC_AUTHENTICATION_REQUIRED`.
+   *
+   * @param {Object} options
+   * @param {string[]} options.secretNames
+   * @param {boolean} [options.interactionNotAllowed=false] Never prompt. On Android, calls which would have to prompt fail with `BIOMETRIC_AUTHENTICATION_REQUIRED`
+   * @param {boolean} [options.skipAuthenticationCheck=false] (Android only) With `interactionNotAllowed`, don't first check that the user can authenticate
+   * @param {boolean} [options.confirmationRequired=true]
+   * @param {'start' | 'continue'} [options.batch]
+   * @param {string} [options.sessionToken] (Android only) Token from `beginSession`, to run without prompting while the session lasts
+   * @param {string} [options.title]
+   * @param {string} [options.subtitle]
+   * @param {string} [options.description]
+   * @param {string} [options.fallbackButtonTitle]
+   * @param {string} [options.cancelButtonTitle]
+   * @returns {Promise<{secrets: Object<string, string>, errors: Object<string, {code: number, message: string}>}>}
+   */
+  async getSecrets(options) {
+    if (cordova.platformId === 'android') {
+      return await this.execNative('getSecrets', options);
+    }
+
+    // Elsewhere, read one by one reusing the authentication of the first read
+    const { secretNames = [], ...rest } = options;
+    const result = { secrets: {}, errors: {} };
+    for (let i = 0; i < secretNames.length; i++) {
+      const secretName = secretNames[i];
+      try {
+        result.secrets[secretName] = await this.getSecret({
+          ...rest,
+          secretName,
+          batch: i === 0 ? rest.batch || 'start' : 'continue',
+        });
+      } catch (error) {
+        if (error.wasCancelledByUser) {
+          throw error;
+        }
+        result.errors[secretName] = {
+          code: error.code,
+          message: error.message,
+        };
+      }
+    }
+    return result;
+  }
+
+  /**
+   * (Android only) Authenticates once and decrypts the given secrets into a
+   * session. Calls passing the returned token read those secrets from memory
+   * without prompting until the session expires or is ended. Secrets which
+   * can't be read are reported in `errors` and left out of the session.
+   *
+   * @param {Object} options
+   * @param {string[]} options.secretNames
+   * @param {number} [options.sessionDurationSeconds=60] Must be positive, and is capped at 3600
+   * @param {boolean} [options.confirmationRequired=true]
+   * @param {string} [options.title]
+   * @param {string} [options.subtitle]
+   * @param {string} [options.description]
+   * @param {string} [options.cancelButtonTitle]
+   * @returns {Promise<{token: string, expiresAt: number, errors: Object<string, {code: number, message: string}>}>} `expiresAt` is in milliseconds since the epoch
+   */
+  async beginSession(options) {
+    return await this.execNative('beginSession', options);
+  }
+
+  /**
+   * (Android only) Ends a session early, clearing the secrets it holds.
+   *
+   * @param {Object} options
+   * @param {string} options.sessionToken
+   * @returns {Promise<void>}
+   */
+  async endSession(options) {
+    await this.execNative('endSession', options);
+  }
+
   /**
    * @param {Object} options
    * @param {string} [options.secretName="__aio_key"]
    * @param {'lockWithDevice' | 'lockAfterUse' | 'lockAfterUseBiometricOnly'} [options.lockBehavior='lockAfterUse']
-   * @param {boolean} [options.interactionNotAllowed=false]
+   * @param {boolean} [options.interactionNotAllowed=false] Never prompt. On Android, calls which would have to prompt fail with `BIOMETRIC_AUTHENTICATION_REQUIRED`
+   * @param {boolean} [options.skipAuthenticationCheck=false] (Android only) With `interactionNotAllowed`, don't first check that the user can authenticate
    * @param {boolean} [options.confirmationRequired=true]
    * @param {'start' | 'continue'} [options.batch]
+   * @param {string} [options.sessionToken] (Android only) Token from `beginSession`, to run without prompting while the session lasts
    * @param {string} [options.title]
    * @param {string} [options.subtitle]
    * @param {string} [options.description]
@@ -194,6 +414,52 @@ class SystemUnlock {
       }
     }
   }
+
+  /**
+   * Deletes several secrets with at most one authentication prompt, either
+   * those named or, on Android only, all of those whose names start with a
+   * prefix. Secrets which don't exist are skipped.
+   *
+   * @param {Object} options
+   * @param {string[]} [options.secretNames]
+   * @param {string} [options.prefix] (Android only) Used when `secretNames` isn't given, and mustn't be empty
+   * @param {boolean} [options.confirmationRequired=true]
+   * @param {'start' | 'continue'} [options.batch]
+   * @param {string} [options.sessionToken] (Android only) Token from `beginSession`, to run without prompting while the session lasts
+   * @param {string} [options.title]
+   * @param {string} [options.subtitle]
+   * @param {string} [options.description]
+   * @param {string} [options.fallbackButtonTitle]
+   * @param {string} [options.cancelButtonTitle]
+   * @returns {Promise<{secretNames: string[]}>} The names of the secrets deleted
+   */
+  async deleteSecrets(options) {
+    if (cordova.platformId === 'android') {
+      return await this.execNative('deleteSecrets', options);
+    }
+
+    // Elsewhere, delete one by one reusing the authentication of the first
+    const { secretNames = [], ...rest } = options;
+    const deleted = [];
+    for (let i = 0; i < secretNames.length; i++) {
+      try {
+        await this.execNative('deleteSecret', {
+          ...rest,
+          secretName: secretNames[i],
+          batch: i === 0 ? rest.batch || 'start' : 'continue',
+        });
+        deleted.push(secretNames[i]);
+      } catch (error) {
+        if (
+          typeof error !== 'object' ||
+          error.code !== this.BIOMETRIC_NO_SECRET_FOUND
+        ) {
+          throw error;
+        }
+      }
+    }
+    return { secretNames: deleted };
+  }
 }
 
 module.exports = new SystemUnlock();